@@ -0,0 +1,29 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build the rows in the same form as decoded by the driver, i.e. the
+ * serialized values of the columns. The constructors are package-private in
+ * the driver, hence the package of this class.
+ */
+public class BenchmarkRows {
+    public static ColumnDefinitions columns(String table, String[] names, DataType[] types) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.length];
+        for (int i = 0; i < names.length; i++) {
+            definitions[i] = new ColumnDefinitions.Definition("benchmark", table, names[i], types[i]);
+        }
+        return new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    public static Row row(ColumnDefinitions columns, Object... values) {
+        List<ByteBuffer> data = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            TypeCodec<Object> codec = CodecRegistry.DEFAULT_INSTANCE.codecFor(columns.getType(i));
+            data.add(codec.serialize(values[i], ProtocolVersion.V4));
+        }
+        return ArrayBackedRow.fromData(columns, null, ProtocolVersion.V4, data);
+    }
+}
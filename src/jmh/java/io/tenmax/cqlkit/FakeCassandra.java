@@ -0,0 +1,694 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in of a single Cassandra node. It speaks enough of the
+ * native protocol v4 for the driver to connect, read the schema and the token
+ * ring, and page through a generated table:
+ *
+ * <pre>
+ * CREATE TABLE bench.t (id bigint PRIMARY KEY, name text, value double, created timestamp, payload text)
+ * </pre>
+ *
+ * The rows are spread evenly over the token ring, so the range queries of
+ * <code>--query-ranges</code> return their share of the table. Each page is
+ * answered after the configured latency, and the page size is capped by the
+ * server page size if it is smaller than the fetch size.
+ *
+ * Only the queries issued by the driver and cqlkit are understood. The
+ * selection of a data query is ignored and all the columns are returned.
+ */
+public class FakeCassandra implements AutoCloseable {
+    public static final String KEYSPACE = "bench";
+    public static final String TABLE = "t";
+
+    private static final int VERSION = 0x04;
+    private static final int RESPONSE = 0x80;
+
+    private static final int ERROR = 0x00;
+    private static final int STARTUP = 0x01;
+    private static final int READY = 0x02;
+    private static final int OPTIONS = 0x05;
+    private static final int SUPPORTED = 0x06;
+    private static final int QUERY = 0x07;
+    private static final int RESULT = 0x08;
+    private static final int PREPARE = 0x09;
+    private static final int EXECUTE = 0x0A;
+    private static final int REGISTER = 0x0B;
+
+    private static final int INVALID = 0x2200;
+    private static final int PROTOCOL_ERROR = 0x000A;
+
+    private static final Pattern DATA_QUERY = Pattern.compile(
+            "from\\s+(\"?" + KEYSPACE + "\"?\\.)?\"?" + TABLE + "\"?(\\s|;|$)");
+    private static final Pattern TOKEN_RANGE = Pattern.compile(
+            "where\\s+token\\(.*\\)\\s*>\\s*\\?\\s+and\\s+token\\(.*\\)\\s*<=\\s*\\?");
+
+    private static final String[] DATA_COLUMNS = {"id", "name", "value", "created", "payload"};
+    private static final DataType[] DATA_TYPES = {
+            DataType.bigint(), DataType.text(), DataType.cdouble(), DataType.timestamp(), DataType.text()
+    };
+    private static final long CREATED = 1500000000000L;
+
+    private final long rows;
+    private final int pageSize;
+    private final long latencyMillis;
+    private final int vnodes;
+    private final byte[] payload;
+    private final long step;
+
+    private final ServerSocket serverSocket;
+    private final ScheduledExecutorService executor;
+    private final Map<ByteBuffer, String> prepared = new ConcurrentHashMap<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final UUID hostId = UUID.randomUUID();
+    private final UUID schemaVersion = UUID.randomUUID();
+    private volatile boolean closed = false;
+
+    /**
+     * @param port The port to listen on, or 0 for an ephemeral port
+     * @param rows The rows of the table
+     * @param pageSize The maximum rows per page, or 0 to follow the fetch size
+     * @param latencyMillis The delay before each response of a data query
+     * @param payloadBytes The length of the payload column
+     * @param vnodes The tokens of the node
+     */
+    public FakeCassandra(
+            int port,
+            long rows,
+            int pageSize,
+            long latencyMillis,
+            int payloadBytes,
+            int vnodes) throws IOException
+    {
+        this.rows = rows;
+        this.pageSize = pageSize;
+        this.latencyMillis = latencyMillis;
+        this.vnodes = vnodes;
+        this.payload = new byte[payloadBytes];
+        Arrays.fill(payload, (byte) 'x');
+        this.step = BigInteger.ONE.shiftLeft(64)
+                .divide(BigInteger.valueOf(Math.max(rows, 2)))
+                .longValue();
+
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newScheduledThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "fake-cassandra-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Thread acceptor = new Thread(this::accept, "fake-cassandra-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                Thread reader = new Thread(() -> serve(socket), "fake-cassandra-connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+
+            byte[] header = new byte[9];
+            while (!closed) {
+                in.readFully(header);
+                ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+                int version = headerBuffer.get() & 0x7F;
+                headerBuffer.get(); // flags
+                short stream = headerBuffer.getShort();
+                int opcode = headerBuffer.get();
+                byte[] body = new byte[headerBuffer.getInt()];
+                in.readFully(body);
+
+                if (version != VERSION) {
+                    write(out, stream, ERROR, error(PROTOCOL_ERROR,
+                            "Invalid or unsupported protocol version (" + version + ")"));
+                    continue;
+                }
+                handle(out, stream, opcode, ByteBuffer.wrap(body));
+            }
+        } catch (EOFException e) {
+            // the client disconnected
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void handle(OutputStream out, short stream, int opcode, ByteBuffer body) {
+        switch (opcode) {
+            case STARTUP:
+            case REGISTER:
+                write(out, stream, READY, new byte[0]);
+                break;
+            case OPTIONS:
+                write(out, stream, SUPPORTED, supported());
+                break;
+            case QUERY: {
+                String query = readLongString(body);
+                QueryParameters parameters = new QueryParameters(body);
+                respond(out, stream, query, parameters);
+                break;
+            }
+            case PREPARE:
+                write(out, stream, RESULT, prepare(readLongString(body)));
+                break;
+            case EXECUTE: {
+                byte[] id = new byte[body.getShort()];
+                body.get(id);
+                String query = prepared.get(ByteBuffer.wrap(id));
+                QueryParameters parameters = new QueryParameters(body);
+                if (query == null) {
+                    write(out, stream, ERROR, error(INVALID, "Unknown prepared statement"));
+                } else {
+                    respond(out, stream, query, parameters);
+                }
+                break;
+            }
+            default:
+                write(out, stream, ERROR, error(PROTOCOL_ERROR, "Unsupported opcode " + opcode));
+        }
+    }
+
+    private void respond(OutputStream out, short stream, String query, QueryParameters parameters) {
+        String lower = query.trim().toLowerCase();
+        if (DATA_QUERY.matcher(lower).find()) {
+            // Answer the page after the latency, without blocking the other streams
+            executor.schedule(
+                    () -> write(out, stream, RESULT, page(lower, parameters)),
+                    latencyMillis,
+                    TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        byte[] result;
+        if (lower.startsWith("use ")) {
+            result = setKeyspace(query.trim().substring(4).replace("\"", "").replace(";", "").trim());
+        } else if (lower.contains("from system.local")) {
+            result = local();
+        } else if (lower.contains("from system_schema.keyspaces")) {
+            result = keyspaces();
+        } else if (lower.contains("from system_schema.tables")) {
+            result = tables();
+        } else if (lower.contains("from system_schema.columns")) {
+            result = columns();
+        } else if (lower.contains("from system.") || lower.contains("from system_schema.")) {
+            // No peers, no size estimates, no user types, functions, indexes or views
+            result = new Rows().toBytes();
+        } else {
+            write(out, stream, ERROR, error(INVALID, "unconfigured table in: " + query));
+            return;
+        }
+        write(out, stream, RESULT, result);
+    }
+
+    /**
+     * The rows of the data table between the bound tokens, from the paging state.
+     */
+    private byte[] page(String query, QueryParameters parameters) {
+        long from = 0;
+        long to = rows;
+        if (TOKEN_RANGE.matcher(query).find()) {
+            if (parameters.values.size() != 2) {
+                return error(INVALID, "Expected the start and end tokens");
+            }
+            long start = parameters.values.get(0).getLong(0);
+            long end = parameters.values.get(1).getLong(0);
+            from = rowsUntil(start);
+            // The minimum token as the end is the end of the ring
+            to = end == Long.MIN_VALUE ? rows : rowsUntil(end);
+        }
+
+        if (parameters.pagingState != null) {
+            from = parameters.pagingState.getLong(0);
+        }
+        int size = parameters.pageSize > 0 ? parameters.pageSize : Integer.MAX_VALUE;
+        if (pageSize > 0) {
+            size = Math.min(size, pageSize);
+        }
+        long next = Math.min(to, from + Math.max(size, 1));
+        boolean hasMore = next < to;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    (int) Math.min(64 + (next - from) * (64 + payload.length), Integer.MAX_VALUE));
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(2); // rows
+            data.writeInt(0x0001 | (hasMore ? 0x0002 : 0));
+            data.writeInt(DATA_COLUMNS.length);
+            if (hasMore) {
+                data.writeInt(8);
+                data.writeLong(next);
+            }
+            writeString(data, KEYSPACE);
+            writeString(data, TABLE);
+            for (int i = 0; i < DATA_COLUMNS.length; i++) {
+                writeString(data, DATA_COLUMNS[i]);
+                writeType(data, DATA_TYPES[i]);
+            }
+
+            data.writeInt((int) (next - from));
+            for (long i = from; i < next; i++) {
+                data.writeInt(8);
+                data.writeLong(i);
+                byte[] name = ("name-" + i).getBytes(StandardCharsets.UTF_8);
+                data.writeInt(name.length);
+                data.write(name);
+                data.writeInt(8);
+                data.writeDouble(i * 0.5);
+                data.writeInt(8);
+                data.writeLong(CREATED + i * 1000);
+                data.writeInt(payload.length);
+                data.write(payload);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The token of row i is <code>MIN + 1 + i * step</code>.
+     *
+     * @return The rows with the token less than or equal to the token.
+     */
+    private long rowsUntil(long token) {
+        if (token == Long.MIN_VALUE) {
+            return 0;
+        }
+        long offset = token - Long.MIN_VALUE - 1;
+        return Math.min(rows, Long.divideUnsigned(offset, step) + 1);
+    }
+
+    private byte[] prepare(String query) {
+        byte[] id = UUID.nameUUIDFromBytes(query.getBytes(StandardCharsets.UTF_8))
+                .toString()
+                .getBytes(StandardCharsets.US_ASCII);
+        prepared.put(ByteBuffer.wrap(id), query);
+
+        boolean range = TOKEN_RANGE.matcher(query.toLowerCase()).find();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(4); // prepared
+            data.writeShort(id.length);
+            data.write(id);
+
+            // The bound variables
+            data.writeInt(range ? 0x0001 : 0);
+            data.writeInt(range ? 2 : 0);
+            data.writeInt(0); // no partition key columns bound
+            if (range) {
+                writeString(data, KEYSPACE);
+                writeString(data, TABLE);
+                for (int i = 0; i < 2; i++) {
+                    writeString(data, "partition key token");
+                    writeType(data, DataType.bigint());
+                }
+            }
+
+            // The result
+            data.writeInt(0x0001);
+            data.writeInt(DATA_COLUMNS.length);
+            writeString(data, KEYSPACE);
+            writeString(data, TABLE);
+            for (int i = 0; i < DATA_COLUMNS.length; i++) {
+                writeString(data, DATA_COLUMNS[i]);
+                writeType(data, DATA_TYPES[i]);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] local() {
+        Set<String> tokens = new LinkedHashSet<>();
+        long tokenStep = BigInteger.ONE.shiftLeft(64).divide(BigInteger.valueOf(vnodes)).longValue();
+        for (int i = 0; i < vnodes; i++) {
+            tokens.add(Long.toString(Long.MIN_VALUE + tokenStep / 2 + i * tokenStep));
+        }
+        InetAddress address = serverSocket.getInetAddress();
+
+        return new Rows("system", "local")
+                .column("key", DataType.text())
+                .column("bootstrapped", DataType.text())
+                .column("broadcast_address", DataType.inet())
+                .column("cluster_name", DataType.text())
+                .column("cql_version", DataType.text())
+                .column("data_center", DataType.text())
+                .column("host_id", DataType.uuid())
+                .column("listen_address", DataType.inet())
+                .column("native_protocol_version", DataType.text())
+                .column("partitioner", DataType.text())
+                .column("rack", DataType.text())
+                .column("release_version", DataType.text())
+                .column("rpc_address", DataType.inet())
+                .column("schema_version", DataType.uuid())
+                .column("tokens", DataType.set(DataType.text()))
+                .row("local", "COMPLETED", address, "Fake Cluster", "3.4.4", "datacenter1", hostId,
+                        address, "4", "org.apache.cassandra.dht.Murmur3Partitioner", "rack1", "3.11.4",
+                        address, schemaVersion, tokens)
+                .toBytes();
+    }
+
+    private byte[] keyspaces() {
+        Map<String, String> replication = new HashMap<>();
+        replication.put("class", "org.apache.cassandra.locator.SimpleStrategy");
+        replication.put("replication_factor", "1");
+        return new Rows("system_schema", "keyspaces")
+                .column("keyspace_name", DataType.text())
+                .column("durable_writes", DataType.cboolean())
+                .column("replication", DataType.map(DataType.text(), DataType.text()))
+                .row(KEYSPACE, true, replication)
+                .toBytes();
+    }
+
+    private byte[] tables() {
+        Map<String, String> caching = new HashMap<>();
+        caching.put("keys", "ALL");
+        caching.put("rows_per_partition", "NONE");
+        Map<String, String> compaction = new HashMap<>();
+        compaction.put("class", "org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy");
+        Map<String, String> compression = new HashMap<>();
+        compression.put("class", "org.apache.cassandra.io.compress.LZ4Compressor");
+
+        return new Rows("system_schema", "tables")
+                .column("keyspace_name", DataType.text())
+                .column("table_name", DataType.text())
+                .column("bloom_filter_fp_chance", DataType.cdouble())
+                .column("caching", DataType.map(DataType.text(), DataType.text()))
+                .column("comment", DataType.text())
+                .column("compaction", DataType.map(DataType.text(), DataType.text()))
+                .column("compression", DataType.map(DataType.text(), DataType.text()))
+                .column("crc_check_chance", DataType.cdouble())
+                .column("dclocal_read_repair_chance", DataType.cdouble())
+                .column("default_time_to_live", DataType.cint())
+                .column("extensions", DataType.map(DataType.text(), DataType.blob()))
+                .column("flags", DataType.set(DataType.text()))
+                .column("gc_grace_seconds", DataType.cint())
+                .column("id", DataType.uuid())
+                .column("max_index_interval", DataType.cint())
+                .column("memtable_flush_period_in_ms", DataType.cint())
+                .column("min_index_interval", DataType.cint())
+                .column("read_repair_chance", DataType.cdouble())
+                .column("speculative_retry", DataType.text())
+                .row(KEYSPACE, TABLE, 0.01, caching, "", compaction, compression, 1.0, 0.1, 0,
+                        Collections.emptyMap(), Collections.singleton("compound"), 864000,
+                        UUID.nameUUIDFromBytes(TABLE.getBytes(StandardCharsets.UTF_8)),
+                        2048, 0, 128, 0.0, "99PERCENTILE")
+                .toBytes();
+    }
+
+    private byte[] columns() {
+        Rows result = new Rows("system_schema", "columns")
+                .column("keyspace_name", DataType.text())
+                .column("table_name", DataType.text())
+                .column("column_name", DataType.text())
+                .column("clustering_order", DataType.text())
+                .column("column_name_bytes", DataType.blob())
+                .column("kind", DataType.text())
+                .column("position", DataType.cint())
+                .column("type", DataType.text());
+        for (int i = 0; i < DATA_COLUMNS.length; i++) {
+            result.row(KEYSPACE, TABLE, DATA_COLUMNS[i], "none",
+                    ByteBuffer.wrap(DATA_COLUMNS[i].getBytes(StandardCharsets.UTF_8)),
+                    i == 0 ? "partition_key" : "regular",
+                    i == 0 ? 0 : -1,
+                    DATA_TYPES[i].toString());
+        }
+        return result.toBytes();
+    }
+
+    private static byte[] setKeyspace(String keyspace) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(3); // set keyspace
+            writeString(data, keyspace);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] supported() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeShort(2);
+            writeString(data, "CQL_VERSION");
+            data.writeShort(1);
+            writeString(data, "3.4.4");
+            writeString(data, "COMPRESSION");
+            data.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] error(int code, String message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(code);
+            writeString(data, message);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(OutputStream out, short stream, int opcode, byte[] body) {
+        ByteBuffer header = ByteBuffer.allocate(9);
+        header.put((byte) (RESPONSE | VERSION));
+        header.put((byte) 0);
+        header.putShort(stream);
+        header.put((byte) opcode);
+        header.putInt(body.length);
+
+        synchronized (out) {
+            try {
+                out.write(header.array());
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static String readLongString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeShort(bytes.length);
+        data.write(bytes);
+    }
+
+    private static void writeType(DataOutputStream data, DataType type) throws IOException {
+        switch (type.getName()) {
+            case BIGINT: data.writeShort(0x0002); break;
+            case BLOB: data.writeShort(0x0003); break;
+            case BOOLEAN: data.writeShort(0x0004); break;
+            case DOUBLE: data.writeShort(0x0007); break;
+            case INT: data.writeShort(0x0009); break;
+            case TIMESTAMP: data.writeShort(0x000B); break;
+            case UUID: data.writeShort(0x000C); break;
+            case TEXT:
+            case VARCHAR: data.writeShort(0x000D); break;
+            case INET: data.writeShort(0x0010); break;
+            case LIST:
+                data.writeShort(0x0020);
+                writeType(data, type.getTypeArguments().get(0));
+                break;
+            case MAP:
+                data.writeShort(0x0021);
+                writeType(data, type.getTypeArguments().get(0));
+                writeType(data, type.getTypeArguments().get(1));
+                break;
+            case SET:
+                data.writeShort(0x0022);
+                writeType(data, type.getTypeArguments().get(0));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    /**
+     * The parameters of a QUERY or EXECUTE message.
+     */
+    private static class QueryParameters {
+        final List<ByteBuffer> values = new ArrayList<>();
+        int pageSize = 0;
+        ByteBuffer pagingState;
+
+        QueryParameters(ByteBuffer buffer) {
+            buffer.getShort(); // consistency
+            int flags = buffer.get();
+            if ((flags & 0x01) != 0) {
+                int count = buffer.getShort();
+                for (int i = 0; i < count; i++) {
+                    if ((flags & 0x40) != 0) {
+                        byte[] name = new byte[buffer.getShort()];
+                        buffer.get(name);
+                    }
+                    int length = buffer.getInt();
+                    if (length < 0) {
+                        values.add(null);
+                    } else {
+                        byte[] value = new byte[length];
+                        buffer.get(value);
+                        values.add(ByteBuffer.wrap(value));
+                    }
+                }
+            }
+            if ((flags & 0x04) != 0) {
+                pageSize = buffer.getInt();
+            }
+            if ((flags & 0x08) != 0) {
+                byte[] state = new byte[buffer.getInt()];
+                buffer.get(state);
+                pagingState = ByteBuffer.wrap(state);
+            }
+        }
+    }
+
+    /**
+     * A small result of a system table, serialized by the driver codecs.
+     */
+    private static class Rows {
+        private final String keyspace;
+        private final String table;
+        private final List<String> names = new ArrayList<>();
+        private final List<DataType> types = new ArrayList<>();
+        private final List<Object[]> rows = new ArrayList<>();
+
+        Rows() {
+            this(null, null);
+        }
+
+        Rows(String keyspace, String table) {
+            this.keyspace = keyspace;
+            this.table = table;
+        }
+
+        Rows column(String name, DataType type) {
+            names.add(name);
+            types.add(type);
+            return this;
+        }
+
+        Rows row(Object... values) {
+            rows.add(values);
+            return this;
+        }
+
+        byte[] toBytes() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                data.writeInt(2); // rows
+                data.writeInt(names.isEmpty() ? 0 : 0x0001);
+                data.writeInt(names.size());
+                if (!names.isEmpty()) {
+                    writeString(data, keyspace);
+                    writeString(data, table);
+                }
+                for (int i = 0; i < names.size(); i++) {
+                    writeString(data, names.get(i));
+                    writeType(data, types.get(i));
+                }
+
+                data.writeInt(rows.size());
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        ByteBuffer value = CodecRegistry.DEFAULT_INSTANCE
+                                .codecFor(types.get(i))
+                                .serialize(row[i], ProtocolVersion.V4);
+                        if (value == null) {
+                            data.writeInt(-1);
+                        } else {
+                            data.writeInt(value.remaining());
+                            data.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+                        }
+                    }
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
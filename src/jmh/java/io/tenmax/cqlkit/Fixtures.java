@@ -0,0 +1,181 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.BenchmarkRows;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.Row;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * The synthetic tables of the benchmarks. The rows are generated with a fixed
+ * seed, so the runs are comparable.
+ */
+public class Fixtures {
+    public static final int ROWS = 1000;
+
+    public enum Table {
+        NARROW,
+        WIDE,
+        COLLECTIONS,
+        TIMESTAMPS,
+        BLOBS,
+        JSON
+    }
+
+    private final ColumnDefinitions columns;
+    private final Row[] rows = new Row[ROWS];
+
+    public Fixtures(Table table) {
+        Random random = new Random(42);
+        switch (table) {
+            case NARROW:
+                columns = BenchmarkRows.columns("narrow",
+                        new String[] {"id", "name", "value"},
+                        new DataType[] {DataType.uuid(), DataType.text(), DataType.bigint()});
+                for (int i = 0; i < ROWS; i++) {
+                    rows[i] = BenchmarkRows.row(columns,
+                            new UUID(random.nextLong(), random.nextLong()),
+                            text(random, 16),
+                            random.nextLong());
+                }
+                break;
+            case WIDE:
+                String[] names = new String[50];
+                DataType[] types = new DataType[50];
+                DataType[] choices = {
+                        DataType.text(), DataType.cint(), DataType.bigint(), DataType.cdouble(),
+                        DataType.cboolean(), DataType.decimal(), DataType.inet(), DataType.date()
+                };
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = "c" + i;
+                    types[i] = choices[i % choices.length];
+                }
+                columns = BenchmarkRows.columns("wide", names, types);
+                for (int i = 0; i < ROWS; i++) {
+                    Object[] values = new Object[names.length];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = value(random, types[j]);
+                    }
+                    rows[i] = BenchmarkRows.row(columns, values);
+                }
+                break;
+            case COLLECTIONS:
+                columns = BenchmarkRows.columns("collections",
+                        new String[] {"id", "tags", "scores", "attributes"},
+                        new DataType[] {
+                                DataType.bigint(),
+                                DataType.list(DataType.text()),
+                                DataType.set(DataType.cint()),
+                                DataType.map(DataType.text(), DataType.text())
+                        });
+                for (int i = 0; i < ROWS; i++) {
+                    List<String> tags = new ArrayList<>();
+                    Set<Integer> scores = new LinkedHashSet<>();
+                    Map<String, String> attributes = new LinkedHashMap<>();
+                    for (int j = 0; j < 10; j++) {
+                        tags.add(text(random, 8));
+                        scores.add(random.nextInt());
+                        attributes.put(text(random, 8), text(random, 16));
+                    }
+                    rows[i] = BenchmarkRows.row(columns, random.nextLong(), tags, scores, attributes);
+                }
+                break;
+            case TIMESTAMPS:
+                columns = BenchmarkRows.columns("timestamps",
+                        new String[] {"sensor", "ts", "value"},
+                        new DataType[] {DataType.text(), DataType.timestamp(), DataType.cdouble()});
+                // Time series with a few rows per second
+                long time = 1500000000000L;
+                for (int i = 0; i < ROWS; i++) {
+                    time += random.nextInt(500);
+                    rows[i] = BenchmarkRows.row(columns, "sensor-1", new Date(time), random.nextDouble());
+                }
+                break;
+            case BLOBS:
+                columns = BenchmarkRows.columns("blobs",
+                        new String[] {"id", "data"},
+                        new DataType[] {DataType.bigint(), DataType.blob()});
+                for (int i = 0; i < ROWS; i++) {
+                    byte[] data = new byte[1024];
+                    random.nextBytes(data);
+                    rows[i] = BenchmarkRows.row(columns, random.nextLong(), ByteBuffer.wrap(data));
+                }
+                break;
+            case JSON:
+                columns = BenchmarkRows.columns("json",
+                        new String[] {"id", "doc"},
+                        new DataType[] {DataType.bigint(), DataType.text()});
+                for (int i = 0; i < ROWS; i++) {
+                    String doc = String.format(
+                            "{\"name\":\"%s\",\"count\":%d,\"ratio\":%f,\"tags\":[\"%s\",\"%s\"],\"nested\":{\"ok\":true}}",
+                            word(random, 12), random.nextInt(), random.nextDouble(),
+                            word(random, 6), word(random, 6));
+                    rows[i] = BenchmarkRows.row(columns, random.nextLong(), doc);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(table.name());
+        }
+    }
+
+    public ColumnDefinitions getColumns() {
+        return columns;
+    }
+
+    public Row[] getRows() {
+        return rows;
+    }
+
+    private static Object value(Random random, DataType type) {
+        switch (type.getName()) {
+            case TEXT:
+                return text(random, 24);
+            case INT:
+                return random.nextInt();
+            case BIGINT:
+                return random.nextLong();
+            case DOUBLE:
+                return random.nextDouble();
+            case BOOLEAN:
+                return random.nextBoolean();
+            case DECIMAL:
+                return BigDecimal.valueOf(random.nextInt(), 4);
+            case INET:
+                try {
+                    return InetAddress.getByAddress(new byte[] {
+                            10, (byte) random.nextInt(), (byte) random.nextInt(), (byte) random.nextInt()});
+                } catch (UnknownHostException e) {
+                    throw new IllegalStateException(e);
+                }
+            case DATE:
+                return LocalDate.fromDaysSinceEpoch(random.nextInt(20000));
+            default:
+                throw new IllegalArgumentException(type.toString());
+        }
+    }
+
+    /**
+     * Text with the characters which need escaping in CSV and JSON.
+     */
+    private static String text(Random random, int length) {
+        return text(random, length, "abcdefghijklmnopqrstuvwxyz0123456789 ,\"\u00e9\u4e2d");
+    }
+
+    private static String word(Random random, int length) {
+        return text(random, length, "abcdefghijklmnopqrstuvwxyz");
+    }
+
+    private static String text(Random random, int length, String chars) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return builder.toString();
+    }
+}
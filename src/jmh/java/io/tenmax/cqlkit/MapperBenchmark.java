@@ -0,0 +1,114 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Row;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of mapping the rows into the output, per mapper and table.
+ * The encoded chunks are written to a discarding stream by the real
+ * {@link OutputWriter}, so the writer thread is part of the measurement.
+ *
+ * Run with different thread counts and the gc profiler, e.g.
+ * <pre>
+ * ./gradlew jmh -PjmhArgs='MapperBenchmark -t 4 -prof gc -p mapper=csv'
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+    @Param({"csv", "json", "cql"})
+    public String mapper;
+
+    @Param({"NARROW", "WIDE", "COLLECTIONS", "TIMESTAMPS", "BLOBS", "JSON"})
+    public Fixtures.Table table;
+
+    private AbstractMapper instance;
+    private Row[] rows;
+    private OutputWriter writer;
+
+    @State(Scope.Thread)
+    public static class ThreadBuffer {
+        OutputBuffer out;
+
+        @Setup
+        public void setup(MapperBenchmark benchmark) {
+            out = benchmark.writer.newBuffer();
+        }
+
+        @TearDown
+        public void tearDown() {
+            out.flush();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Fixtures fixtures = new Fixtures(table);
+        rows = fixtures.getRows();
+
+        List<String> args = new ArrayList<>();
+        switch (mapper) {
+            case "csv":
+                instance = new CQL2CSV();
+                break;
+            case "json":
+                instance = new CQL2JSON();
+                if (table == Fixtures.Table.JSON) {
+                    args.add("-j");
+                    args.add("doc");
+                }
+                break;
+            case "cql":
+                instance = new CQL2CQL();
+                StringBuilder template = new StringBuilder("INSERT INTO t VALUES (");
+                for (int i = 0; i < fixtures.getColumns().size(); i++) {
+                    template.append(i == 0 ? "?" : ", ?");
+                }
+                args.add("-T");
+                args.add(template.append(")").toString());
+                break;
+            default:
+                throw new IllegalArgumentException(mapper);
+        }
+
+        Options options = new Options();
+        instance.prepareOptions(options);
+        instance.commandLine = new DefaultParser().parse(options, args.toArray(new String[0]));
+
+        writer = new OutputWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, instance.recordSeparator(), instance.recordTerminator());
+        instance.writer = writer;
+        instance.head(fixtures.getColumns(), System.out);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Fixtures.ROWS)
+    public void map(ThreadBuffer buffer) {
+        for (Row row : rows) {
+            instance.map(row, buffer.out);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package io.tenmax.cqlkit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The end to end throughput of the exports against a {@link FakeCassandra},
+ * i.e. the paging, the parallel scheduling and the output. Each combination of
+ * mapper, parallelism and fetch size is run as a separate cqlkit process, as
+ * the tools are, and the throughput is read from its metrics file.
+ *
+ * <pre>
+ * ./gradlew pipelineBenchmark -PbenchArgs='--rows 2000000 --latency 5 --parallel 1,4,16'
+ * </pre>
+ */
+public class PipelineBenchmark {
+    private static final String QUERY =
+            "select * from " + FakeCassandra.KEYSPACE + "." + FakeCassandra.TABLE;
+    // The template of cql2cql, of the columns of the table
+    private static final String TEMPLATE =
+            "INSERT INTO " + FakeCassandra.KEYSPACE + ".copy (id, name, value, created, payload) " +
+            "VALUES (?, ?, ?, ?, ?)";
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("rows").hasArg(true).argName("ROWS")
+                .desc("The rows of the table. Default is 1000000").build());
+        options.addOption(Option.builder().longOpt("latency").hasArg(true).argName("MS")
+                .desc("The latency of each page. Default is 2").build());
+        options.addOption(Option.builder().longOpt("page-size").hasArg(true).argName("ROWS")
+                .desc("The maximum rows per page of the server. Default is the fetch size").build());
+        options.addOption(Option.builder().longOpt("payload").hasArg(true).argName("BYTES")
+                .desc("The length of the payload column. Default is 100").build());
+        options.addOption(Option.builder().longOpt("vnodes").hasArg(true).argName("NUM")
+                .desc("The token ranges of the node. Default is 256").build());
+        options.addOption(Option.builder().longOpt("mappers").hasArg(true).argName("LIST")
+                .desc("The tools to run. Default is 'cql2csv,cql2json'").build());
+        options.addOption(Option.builder().longOpt("parallel").hasArg(true).argName("LIST")
+                .desc("The values of -P. Default is '1,4,16'").build());
+        options.addOption(Option.builder().longOpt("fetch-sizes").hasArg(true).argName("LIST")
+                .desc("The values of --fetch-size. Default is '1000,5000'").build());
+        options.addOption("h", "help", false, "Show the help and exit");
+
+        CommandLine commandLine = new DefaultParser().parse(options, args);
+        if (commandLine.hasOption("h")) {
+            new HelpFormatter().printHelp("pipelineBenchmark", options);
+            return;
+        }
+
+        long rows = Long.parseLong(commandLine.getOptionValue("rows", "1000000"));
+        long latency = Long.parseLong(commandLine.getOptionValue("latency", "2"));
+        int pageSize = Integer.parseInt(commandLine.getOptionValue("page-size", "0"));
+        int payload = Integer.parseInt(commandLine.getOptionValue("payload", "100"));
+        int vnodes = Integer.parseInt(commandLine.getOptionValue("vnodes", "256"));
+
+        try (FakeCassandra cassandra = new FakeCassandra(0, rows, pageSize, latency, payload, vnodes)) {
+            System.out.printf("%d rows, %d ms per page, %d ranges, port %d%n",
+                    rows, latency, vnodes, cassandra.getPort());
+            System.out.printf("%-12s %8s %10s %12s %10s %10s%n",
+                    "mapper", "parallel", "fetch-size", "rows/s", "MB/s", "seconds");
+
+            for (String mapper : commandLine.getOptionValue("mappers", "cql2csv,cql2json").split(",")) {
+                for (String parallel : commandLine.getOptionValue("parallel", "1,4,16").split(",")) {
+                    for (String fetchSize : commandLine.getOptionValue("fetch-sizes", "1000,5000").split(",")) {
+                        JsonObject metrics = run(cassandra, mapper.trim(), parallel.trim(), fetchSize.trim());
+                        if (metrics == null) {
+                            continue;
+                        }
+                        if (metrics.get("rows").getAsLong() != rows) {
+                            System.err.printf("%s exported %d rows, expected %d%n",
+                                    mapper, metrics.get("rows").getAsLong(), rows);
+                        }
+                        System.out.printf("%-12s %8s %10s %12.0f %10.2f %10.2f%n",
+                                mapper, parallel, fetchSize,
+                                metrics.get("rowsPerSecond").getAsDouble(),
+                                metrics.get("mbPerSecond").getAsDouble(),
+                                metrics.get("elapsedSeconds").getAsDouble());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The metrics of the export, or null if it failed.
+     */
+    private static JsonObject run(
+            FakeCassandra cassandra,
+            String mapper,
+            String parallel,
+            String fetchSize) throws IOException, InterruptedException
+    {
+        File metricsFile = File.createTempFile("cqlkit-metrics", ".json");
+        File logFile = File.createTempFile("cqlkit", ".log");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass(mapper));
+            command.add("-c");
+            command.add("127.0.0.1");
+            command.add("-r");
+            command.add(Integer.toString(cassandra.getPort()));
+            command.add("--query-ranges");
+            command.add(QUERY);
+            command.add("-P");
+            command.add(parallel);
+            command.add("--fetch-size");
+            command.add(fetchSize);
+            command.add("--status-interval");
+            command.add("0");
+            command.add("--metrics-file");
+            command.add(metricsFile.getPath());
+            if (mapper.equals("cql2cql")) {
+                command.add("-T");
+                command.add(TEMPLATE);
+            }
+
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(new File(System.getProperty("os.name").startsWith("Windows") ?
+                            "NUL" : "/dev/null"))
+                    .redirectError(logFile)
+                    .start();
+            if (process.waitFor() != 0) {
+                System.err.printf("%s -P %s --fetch-size %s failed:%n", mapper, parallel, fetchSize);
+                System.err.println(new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8));
+                return null;
+            }
+
+            try (Reader reader = new InputStreamReader(
+                    Files.newInputStream(metricsFile.toPath()), StandardCharsets.UTF_8)) {
+                return new JsonParser().parse(reader).getAsJsonObject();
+            }
+        } finally {
+            metricsFile.delete();
+            logFile.delete();
+        }
+    }
+
+    private static String mainClass(String mapper) {
+        switch (mapper) {
+            case "cql2csv":
+                return CQL2CSV.class.getName();
+            case "cql2json":
+                return CQL2JSON.class.getName();
+            case "cql2cql":
+                return CQL2CQL.class.getName();
+            default:
+                throw new IllegalArgumentException("Unknown mapper: " + mapper);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.datastax.driver.core;
+
+/**
+ * Read the metadata of the prepared statements which the driver does not
+ * expose. The fields are package-private in the driver, hence the package of
+ * this class.
+ */
+public class PreparedStatements {
+    /**
+     * The columns of the result of the prepared statement.
+     *
+     * @return The columns, or null if the statement returns no rows.
+     */
+    public static ColumnDefinitions resultMetadata(PreparedStatement statement) {
+        PreparedId.PreparedMetadata metadata = statement.getPreparedId().resultSetMetadata;
+        return metadata != null ? metadata.variables : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build the rows of a subset of the columns, sharing the serialized values of
+ * the original rows. The constructors are package-private in the driver, hence
+ * the package of this class.
+ */
+public class ProjectedRows {
+    /**
+     * @param indexes The indexes of the columns in the original columns
+     * @param names The names of the projected columns
+     */
+    public static ColumnDefinitions columns(
+            ColumnDefinitions columns,
+            int[] indexes,
+            String[] names,
+            CodecRegistry codecRegistry)
+    {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            ColumnDefinitions.Definition definition = columns.asList().get(indexes[i]);
+            definitions[i] = new ColumnDefinitions.Definition(
+                    definition.getKeyspace(),
+                    definition.getTable(),
+                    names[i],
+                    definition.getType());
+        }
+        return new ColumnDefinitions(definitions, codecRegistry);
+    }
+
+    public static Row row(
+            ColumnDefinitions projected,
+            Row row,
+            int[] indexes,
+            ProtocolVersion protocolVersion)
+    {
+        List<ByteBuffer> data = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            data.add(row.getBytesUnsafe(index));
+        }
+        return ArrayBackedRow.fromData(projected, null, protocolVersion, data);
+    }
+}
@@ -0,0 +1,159 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import org.apache.commons.cli.*;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.HierarchicalINIConfiguration;
+
+import java.io.File;
+
+/**
+ * The base class of the mappers and the loaders. It parses the options shared
+ * by the commands, e.g. the connection and the format of the dates, and the
+ * cqlshrc.
+ */
+public abstract class AbstractCommand {
+    protected CommandLine commandLine;
+    protected HierarchicalINIConfiguration cqlshrc;
+    protected boolean isDebugMode = false;
+
+    protected void prepareOptions(Options options) {
+        options.addOption("c", true, "The contact point. if use multi contact points, use ',' to separate multi points");
+        options.addOption("u", true, "The user to authenticate.");
+        options.addOption("p", true, "The password to authenticate.");
+        options.addOption("k", true, "The keyspace to use.");
+        options.addOption("v", "version", false, "Print the version");
+        options.addOption("h", "help", false, "Show the help and exit");
+        options.addOption("d", "debug", false, "Enable debug mode");
+
+        options.addOption(Option.builder()
+                .longOpt("cqlshrc")
+                .hasArg(true)
+                .desc("Use an alternative cqlshrc file location, path.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("consistency")
+                .hasArg(true)
+                .argName("LEVEL")
+                .desc("The consistency level. The level should be 'any', 'one', 'two', 'three', 'quorum', 'all', 'local_quorum', 'each_quorum', 'serial' or 'local_serial'.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("date-format")
+                .hasArg(true)
+                .desc("Use a custom date format. Default is \"yyyy-MM-dd' 'HH:mm:ss.SSSZ\"")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("time-zone")
+                .hasArg(true)
+                .desc("Use a custom time zone. Default is UTC")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("connect-timeout")
+                .hasArg(true)
+                .desc("Connection timeout in seconds. Default is 5")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("request-timeout")
+                .hasArg(true)
+                .desc("Request timeout in seconds. Default is 12")
+                .build());
+    }
+
+    abstract protected void printHelp(Options options);
+
+    abstract protected void printVersion();
+
+    /**
+     * Validate the options of the command, after the shared options are
+     * validated.
+     */
+    protected void parseOptions(CommandLine commandLine, Options options) {}
+
+    protected CommandLine parseArguments(String[] args) {
+
+        // create the command line parser
+        CommandLineParser parser = new DefaultParser();
+
+        // create the Options
+        Options options = new Options();
+        prepareOptions(options);
+        CommandLine commandLine = null;
+
+        try {
+            // parse the command line arguments
+            commandLine = parser.parse(options, args);
+
+            if (commandLine.getOptions().length == 0 || commandLine.hasOption("h")) {
+                printHelp(options);
+            } else if (commandLine.hasOption("v")) {
+                printVersion();
+            }
+
+            if (commandLine.hasOption("consistency")) {
+                String consistency = commandLine.getOptionValue("consistency");
+                try {
+                    ConsistencyLevel.valueOf(consistency.toUpperCase());
+                } catch (Exception e) {
+                    System.err.println("Invalid consistency level: " + consistency);
+                    printHelp(options);
+                }
+            }
+
+            if (commandLine.hasOption("date-format")) {
+                String pattern = commandLine.getOptionValue("date-format");
+                try {
+                    RowUtils.setDateFormat(pattern);
+                } catch (Exception e) {
+                    System.err.println("Invalid date format: " + pattern);
+                    printHelp(options);
+                }
+            }
+
+            if (commandLine.hasOption("time-zone")) {
+                String timeZone = commandLine.getOptionValue("time-zone");
+                try {
+                    RowUtils.setTimeZone(timeZone);
+                } catch (Exception e) {
+                    System.err.println("Invalid time zone: " + timeZone);
+                    printHelp(options);
+                }
+            }
+
+            if (commandLine.hasOption("debug")) {
+                isDebugMode = true;
+            }
+
+            parseOptions(commandLine, options);
+        } catch (ParseException e) {
+            System.err.println("Unexpected exception:" + e.getMessage());
+            System.exit(1);
+        }
+        return commandLine;
+    }
+
+    protected HierarchicalINIConfiguration parseCqlRc() {
+        File file = new File(System.getProperty("user.home") + "/.cassandra/cqlshrc");
+        if (commandLine.hasOption("cqlshrc")) {
+            file = new File(commandLine.getOptionValue("cqlshrc"));
+            if (!file.exists()) {
+                System.err.println("cqlshrc file not found: " + file);
+                System.exit(-1);
+            }
+        }
+
+        if (file.exists()) {
+            try {
+                return new HierarchicalINIConfiguration(file);
+            } catch (ConfigurationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,519 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.JsonObject;
+import org.apache.commons.cli.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The base class of Loaders. A loader is the inverse of a mapper, i.e. it
+ * reads the records of a specific format and inserts them into a table.
+ *
+ * The reader thread splits the input into chunks, and the workers convert
+ * the records of a chunk by the column types, group the inserts by their
+ * partitions and execute them asynchronously. The in-flight writes are
+ * bounded, so a slow cluster blocks the reader instead of the memory.
+ *
+ * @param <R> The type of the records
+ */
+public abstract class AbstractLoader<R> extends AbstractCommand {
+    protected Cluster cluster;
+    protected Session session;
+
+    private TableMetadata table;
+    private PreparedStatement insert;
+    private ConsistencyLevel consistencyLevel;
+    private RetryStrategy retryStrategy;
+    private ScheduledExecutorService retryExecutor;
+    private Semaphore inFlight;
+    private int maxInFlight;
+    private int batchSize;
+    private int maxErrors;
+    private final AtomicLong errors = new AtomicLong(0);
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 128;
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final long DEFAULT_STATUS_INTERVAL = 10;
+
+    @Override
+    protected void prepareOptions(Options options) {
+        super.prepareOptions(options);
+
+        options.addOption("r", "port", true, "Cassandra Port");
+
+        options.addOption(Option.builder("t")
+                .longOpt("table")
+                .hasArg(true)
+                .argName("TABLE")
+                .desc("The table to insert into, as 'keyspace.table', or 'table' of the keyspace of -k.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("columns")
+                .hasArg(true)
+                .argName("LIST")
+                .desc("The columns of the input, separated by comma. Default is the header row " +
+                        "of a CSV input, or all the columns of the table.")
+                .build());
+
+        options.addOption("P", "parallel", true,
+                "The number of the workers to convert the records. Default is the number of processors.");
+
+        options.addOption(Option.builder()
+                .longOpt("chunk-size")
+                .hasArg(true)
+                .argName("NUM")
+                .desc("The records handed to a worker at a time. Default is " + DEFAULT_CHUNK_SIZE)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-in-flight")
+                .hasArg(true)
+                .argName("NUM")
+                .desc("The max concurrent writes. Default is " + DEFAULT_MAX_IN_FLIGHT)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("batch-size")
+                .hasArg(true)
+                .argName("NUM")
+                .desc("Group up to NUM consecutive records of the same partition into an " +
+                        "unlogged batch. Default is no batch")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("retries")
+                .hasArg(true)
+                .argName("N")
+                .desc("The max retries of a failed write, with an exponential backoff. " +
+                        "Default is " + RetryStrategy.DEFAULT_MAX_RETRIES)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("retry-delay")
+                .hasArg(true)
+                .argName("MS")
+                .desc("The base delay of the backoff in milliseconds. " +
+                        "Default is " + RetryStrategy.DEFAULT_BASE_DELAY)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-errors")
+                .hasArg(true)
+                .argName("N")
+                .desc("The number of the invalid records and failed writes to tolerate " +
+                        "before the load fails. Default is 0")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("status-interval")
+                .hasArg(true)
+                .argName("SEC")
+                .desc("Print the rows/s, MB/s and ETA to STDERR every SEC seconds. " +
+                        "0 disables it. Default is " + DEFAULT_STATUS_INTERVAL)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("metrics-file")
+                .hasArg(true)
+                .argName("FILE")
+                .desc("Write the summary of the metrics, e.g. the throughput and the " +
+                        "latency percentiles of the writes, to FILE in JSON")
+                .build());
+    }
+
+    /**
+     * Read the records of an input. It is called by the reader thread only.
+     */
+    abstract protected Iterator<R> records(BufferedReader in) throws IOException;
+
+    /**
+     * The names of the columns of the input if --columns is absent. It is
+     * called after the records of the first input are opened, e.g. after its
+     * header is read.
+     */
+    abstract protected List<String> columns(TableMetadata table);
+
+    /**
+     * Prepare the conversion of the columns, in the order of the bind markers.
+     */
+    abstract protected void head(List<ColumnMetadata> columns);
+
+    /**
+     * Convert the record and bind its values. A missing value stays unset, so
+     * it neither overwrites nor deletes the existing cell.
+     *
+     * @throws RuntimeException if the record is invalid
+     */
+    abstract protected void bind(R record, BoundStatement statement);
+
+    /**
+     * The approximate size of the record in bytes.
+     */
+    abstract protected int size(R record);
+
+    public void start(String[] args) {
+        try {
+            commandLine = parseArguments(args);
+            cqlshrc = parseCqlRc();
+            run();
+        } catch (Exception e) {
+            if (isDebugMode) {
+                e.printStackTrace();
+            } else {
+                System.err.println("Error: " + e.getMessage());
+            }
+            System.exit(1);
+        }
+    }
+
+    @Override
+    protected void parseOptions(CommandLine commandLine, Options options) {
+        if (!commandLine.hasOption("t")) {
+            System.err.println("The table is required.");
+            printHelp(options);
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        int parallelism = commandLine.hasOption("P") ?
+                Integer.parseInt(commandLine.getOptionValue("parallel")) :
+                Runtime.getRuntime().availableProcessors();
+        int chunkSize = commandLine.hasOption("chunk-size") ?
+                Integer.parseInt(commandLine.getOptionValue("chunk-size")) :
+                DEFAULT_CHUNK_SIZE;
+        maxInFlight = commandLine.hasOption("max-in-flight") ?
+                Integer.parseInt(commandLine.getOptionValue("max-in-flight")) :
+                DEFAULT_MAX_IN_FLIGHT;
+        batchSize = commandLine.hasOption("batch-size") ?
+                Integer.parseInt(commandLine.getOptionValue("batch-size")) :
+                1;
+        maxErrors = commandLine.hasOption("max-errors") ?
+                Integer.parseInt(commandLine.getOptionValue("max-errors")) :
+                0;
+        consistencyLevel = commandLine.hasOption("consistency") ?
+                ConsistencyLevel.valueOf(commandLine.getOptionValue("consistency").toUpperCase()) :
+                ConsistencyLevel.ONE;
+
+        int maxRetries = commandLine.hasOption("retries") ?
+                Integer.parseInt(commandLine.getOptionValue("retries")) :
+                RetryStrategy.DEFAULT_MAX_RETRIES;
+        long retryDelay = commandLine.hasOption("retry-delay") ?
+                Long.parseLong(commandLine.getOptionValue("retry-delay")) :
+                RetryStrategy.DEFAULT_BASE_DELAY;
+        retryStrategy = new RetryStrategy(maxRetries, retryDelay, RetryStrategy.DEFAULT_MAX_DELAY);
+        inFlight = new Semaphore(maxInFlight);
+
+        try(SessionFactory sessionFactory = SessionFactory.newInstance(commandLine, cqlshrc)) {
+            cluster = sessionFactory.getCluster();
+            session = sessionFactory.getSession();
+            table = findTable();
+
+            retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cqlkit-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            // A chunk is queued per worker at most, and the reader runs the
+            // chunk by itself when all the workers are busy.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(parallelism),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+
+            long statusInterval = commandLine.hasOption("status-interval") ?
+                    Long.parseLong(commandLine.getOptionValue("status-interval")) :
+                    DEFAULT_STATUS_INTERVAL;
+            if (statusInterval > 0) {
+                metrics.startReporter(statusInterval);
+            }
+
+            // The progress is the bytes read of the input files
+            String[] files = commandLine.getArgs();
+            long totalBytes = 0;
+            for (String file : files) {
+                totalBytes += new File(file).length();
+            }
+            if (files.length > 0 && totalBytes > 0) {
+                metrics.setTotalFraction(1.0);
+            }
+
+            long recordNumber = 1;
+            if (files.length == 0) {
+                recordNumber = load(System.in, null, 0, recordNumber, chunkSize, executor);
+            }
+            for (String file : files) {
+                recordNumber = load(new FileInputStream(file), file, totalBytes, recordNumber, chunkSize, executor);
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+            // Wait for all the writes and retries
+            inFlight.acquireUninterruptibly(maxInFlight);
+            retryExecutor.shutdown();
+
+            metrics.stopReporter();
+            System.err.println("Done: " + metrics.statusLine());
+            if (commandLine.hasOption("metrics-file")) {
+                JsonObject settings = new JsonObject();
+                settings.addProperty("parallelism", parallelism);
+                settings.addProperty("chunkSize", chunkSize);
+                settings.addProperty("maxInFlight", maxInFlight);
+                settings.addProperty("batchSize", batchSize);
+                metrics.writeSummary(new File(commandLine.getOptionValue("metrics-file")), settings);
+            }
+
+            if (errors.get() > 0) {
+                System.err.printf("Warning: %d records failed\n", errors.get());
+            }
+        }
+    }
+
+    private TableMetadata findTable() {
+        String name = commandLine.getOptionValue("t");
+        String keyspaceName = session.getLoggedKeyspace();
+        String tableName = name;
+        int dot = name.indexOf('.');
+        if (dot >= 0) {
+            keyspaceName = name.substring(0, dot);
+            tableName = name.substring(dot + 1);
+        }
+        if (keyspaceName == null) {
+            throw new IllegalArgumentException("No keyspace for the table: " + name);
+        }
+
+        KeyspaceMetadata keyspace = cluster.getMetadata().getKeyspace(keyspaceName);
+        TableMetadata table = keyspace == null ? null : keyspace.getTable(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Table not found: " + name);
+        }
+        return table;
+    }
+
+    private void prepare() {
+        // The names of --columns are in CQL, e.g. quoted if case sensitive
+        List<String> names = commandLine.hasOption("columns") ?
+                Arrays.asList(commandLine.getOptionValue("columns").split(",")) :
+                columns(table).stream()
+                        .map(Metadata::quoteIfNecessary)
+                        .collect(Collectors.toList());
+
+        List<ColumnMetadata> columns = new ArrayList<>();
+        Insert statement = QueryBuilder.insertInto(table);
+        for (String name : names) {
+            ColumnMetadata column = table.getColumn(name.trim());
+            if (column == null) {
+                throw new IllegalArgumentException("Column not found: " + name);
+            }
+            columns.add(column);
+            statement.value(Metadata.quoteIfNecessary(column.getName()), QueryBuilder.bindMarker());
+        }
+
+        insert = session.prepare(statement);
+        insert.setConsistencyLevel(consistencyLevel);
+        head(columns);
+    }
+
+    /**
+     * Read the input and submit its chunks to the workers.
+     *
+     * @return The number of the next record
+     */
+    private long load(InputStream input,
+                      String file,
+                      long totalBytes,
+                      long recordNumber,
+                      int chunkSize,
+                      Executor executor) throws IOException {
+        CountingInputStream counter = new CountingInputStream(input);
+        InputStream in = file != null && file.endsWith(".gz") ?
+                new GZIPInputStream(counter, 64 * 1024) :
+                counter;
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024)) {
+            Iterator<R> records = records(reader);
+            if (insert == null) {
+                prepare();
+            }
+            long readBytes = 0;
+            while (records.hasNext()) {
+                List<R> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && records.hasNext()) {
+                    chunk.add(records.next());
+                }
+
+                final long first = recordNumber;
+                recordNumber += chunk.size();
+                executor.execute(() -> load(chunk, first));
+
+                if (totalBytes > 0) {
+                    metrics.addCoverage((double) (counter.count - readBytes) / totalBytes);
+                    readBytes = counter.count;
+                }
+            }
+        }
+        return recordNumber;
+    }
+
+    /**
+     * Convert and write a chunk. The consecutive records of the same partition
+     * are grouped into a batch up to --batch-size.
+     */
+    private void load(List<R> chunk, long firstRecord) {
+        ProtocolVersion protocolVersion =
+                cluster.getConfiguration().getProtocolOptions().getProtocolVersion();
+        CodecRegistry codecRegistry = cluster.getConfiguration().getCodecRegistry();
+
+        BatchStatement batch = null;
+        ByteBuffer batchKey = null;
+        int batchRecords = 0;
+        int batchBytes = 0;
+
+        for (int i = 0; i < chunk.size(); i++) {
+            R record = chunk.get(i);
+            BoundStatement statement = insert.bind();
+            try {
+                bind(record, statement);
+            } catch (RuntimeException e) {
+                error("Invalid record " + (firstRecord + i) + " of input", 1, e);
+                continue;
+            }
+
+            int size = size(record);
+            if (batchSize <= 1) {
+                execute(statement, 1, size);
+                continue;
+            }
+
+            ByteBuffer key = statement.getRoutingKey(protocolVersion, codecRegistry);
+            if (batch != null &&
+                (batchRecords >= batchSize || key == null || !key.equals(batchKey))) {
+                execute(batch, batchRecords, batchBytes);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batchKey = key;
+                batchRecords = 0;
+                batchBytes = 0;
+            }
+            batch.add(statement);
+            batchRecords++;
+            batchBytes += size;
+        }
+
+        if (batch != null) {
+            execute(batch, batchRecords, batchBytes);
+        }
+    }
+
+    /**
+     * Execute the write asynchronously. It blocks while the in-flight writes
+     * are saturated.
+     */
+    private void execute(BatchStatement batch, int records, int bytes) {
+        // A single statement needs no batch
+        execute(records == 1 ? batch.getStatements().iterator().next() : batch, records, bytes);
+    }
+
+    private void execute(Statement statement, int records, int bytes) {
+        inFlight.acquireUninterruptibly();
+        metrics.addQueries(1);
+        statement.setConsistencyLevel(consistencyLevel);
+        write(statement, records, bytes, 0);
+    }
+
+    private void write(Statement statement, int records, int bytes, int attempts) {
+        long start = System.nanoTime();
+        Futures.addCallback(session.executeAsync(statement), new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                metrics.completeQuery(System.nanoTime() - start, -1);
+                for (int i = 0; i < records; i++) {
+                    metrics.addRow(bytes / records);
+                }
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (retryStrategy.decide(t, attempts) == RetryStrategy.Decision.RETRY) {
+                    metrics.addRetry();
+                    retryExecutor.schedule(
+                            () -> write(statement, records, bytes, attempts + 1),
+                            retryStrategy.delay(attempts + 1),
+                            TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                metrics.completeQuery(System.nanoTime() - start, -1);
+                inFlight.release();
+                error("Error when write " + records + " records", records, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param records The number of the failed records, e.g. the records of a batch
+     */
+    private void error(String message, int records, Throwable e) {
+        System.err.println(message);
+        if (isDebugMode) {
+            e.printStackTrace();
+        } else {
+            System.err.println("Error: " + e.getMessage());
+        }
+
+        metrics.addFailure();
+        if (errors.addAndGet(records) > maxErrors) {
+            System.err.printf("Error: more than %d records failed\n", maxErrors);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Count the bytes read of the input file, for the progress.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -3,41 +3,68 @@ package io.tenmax.cqlkit;
 import com.datastax.driver.core.*;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.JsonObject;
 import org.apache.commons.cli.*;
-import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.configuration.HierarchicalINIConfiguration;
 import sun.misc.Unsafe;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 
 /**
  * The base case of Mappers. A mapper is map the Cassandra row to a specific format.
  *
  */
-public abstract class AbstractMapper {
-    protected CommandLine commandLine;
-    protected HierarchicalINIConfiguration cqlshrc;
+public abstract class AbstractMapper extends AbstractCommand {
     protected boolean lineNumberEnabled = false;
     protected boolean isRangeQuery = true;
-    protected boolean isDebugMode = false;
 
     protected AtomicInteger lineNumber = new AtomicInteger(1);
     protected Cluster cluster;
     protected Session session;
-    private AtomicInteger completeJobs = new AtomicInteger(0);
-    private int totalJobs;
-
+    protected OutputWriter writer;
+    protected RetryStrategy retryStrategy;
+    private OutputDirectory outputDirectory;
+    // The parts of --output-dir which are not written by any query
+    private final Queue<OutputDirectory.Part> idleParts = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<OutputBuffer> outputBuffers =
+            ThreadLocal.withInitial(() -> writer.newBuffer());
+    private RangeScheduler scheduler;
+    private ExecutorService[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger(0);
+    private Semaphore concurrentQueries;
+    private ScheduledExecutorService retryExecutor;
+    private ConsistencyLevel consistencyLevel;
+    private int prefetchRows;
+    private Checkpoint checkpoint;
+    private int maxErrors = 0;
+    private AtomicInteger failedQueries = new AtomicInteger(0);
+    private RowFilter rowFilter;
+    private Predicate<Row> rowPredicate;
+    private RowProjection projection;
+    private TokenBucket rowLimiter;
+    private TokenBucket byteLimiter;
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    private static final long DEFAULT_MAX_PART_SIZE = 128;
+    private static final long DEFAULT_STATUS_INTERVAL = 10;
+
+    @Override
     protected void prepareOptions(Options options) {
+        super.prepareOptions(options);
+
         OptionGroup queryGroup = new OptionGroup();
 
         queryGroup.addOption(Option
@@ -65,68 +92,186 @@ public abstract class AbstractMapper {
         options.addOptionGroup(queryGroup);
 
 
-        options.addOption("c", true, "The contact point. if use multi contact points, use ',' to separate multi points");
-        options.addOption("u", true, "The user to authenticate.");
-        options.addOption("p", true, "The password to authenticate.");
-        options.addOption("k", true, "The keyspace to use.");
-        options.addOption("v", "version", false, "Print the version");
-        options.addOption("h", "help", false, "Show the help and exit");
-        options.addOption("d", "debug", false, "Enable debug mode");
+        options.addOption(Option.builder()
+                .longOpt("fetch-size")
+                .hasArg(true)
+                .argName("SIZE")
+                .desc("The fetch size. Default is " + QueryOptions.DEFAULT_FETCH_SIZE)
+                .build());
 
         options.addOption(Option.builder()
-                .longOpt("cqlshrc")
+                .longOpt("prefetch")
                 .hasArg(true)
-                .desc("Use an alternative cqlshrc file location, path.")
+                .argName("PAGES")
+                .desc("The number of pages to fetch ahead while the current page is being mapped. " +
+                        "0 disables prefetching. Default is 1")
                 .build());
 
         options.addOption(Option.builder()
-                .longOpt("consistency")
+                .longOpt("filter")
                 .hasArg(true)
-                .argName("LEVEL")
-                .desc("The consistency level. The level should be 'any', 'one', 'two', 'three', 'quorum', 'all', 'local_quorum', 'each_quorum', 'serial' or 'local_serial'.")
+                .argName("EXPR")
+                .desc("Output the rows matching EXPR only, e.g. \"status = 'active' and " +
+                        "(score >= 0.5 or name like 'a%')\". The operators are =, !=, <, <=, " +
+                        ">, >=, in, like, is [not] null, and, or and not. The rows are filtered " +
+                        "by cqlkit instead of ALLOW FILTERING.")
                 .build());
 
         options.addOption(Option.builder()
-                .longOpt("fetch-size")
+                .longOpt("output-columns")
                 .hasArg(true)
-                .argName("SIZE")
-                .desc("The fetch size. Default is " + QueryOptions.DEFAULT_FETCH_SIZE)
+                .argName("LIST")
+                .desc("The columns to output, separated by comma. A column can be renamed by " +
+                        "'column as name'. The other columns of the query, e.g. the columns " +
+                        "of --filter, are not output. Default is all the columns")
                 .build());
 
+        options.addOption("P", "parallel", true, "The level of parallelism to run the task. Default is sequential." );
+
         options.addOption(Option.builder()
-                .longOpt("date-format")
+                .longOpt("max-concurrent-queries")
                 .hasArg(true)
-                .desc("Use a custom date format. Default is \"yyyy-MM-dd' 'HH:mm:ss.SSSZ\"")
+                .argName("NUM")
+                .desc("The max queries in flight. The pages are fetched asynchronously, so it " +
+                        "is independent of the threads of -P which map the rows. The rows of " +
+                        "the queries in flight are interleaved, so the output keeps the order " +
+                        "of the queries only if it is 1. Default is twice the parallelism, " +
+                        "or 1 if sequential")
                 .build());
 
         options.addOption(Option.builder()
-                .longOpt("time-zone")
+                .longOpt("splits")
                 .hasArg(true)
-                .desc("Use a custom time zone. Default is UTC")
+                .argName("N")
+                .desc("Split the token ring into about N queries for --query-ranges and " +
+                        "--query-partition-keys, weighted by system.size_estimates. " +
+                        "Default is one query per token range")
                 .build());
 
-        options.addOption("P", "parallel", true, "The level of parallelism to run the task. Default is sequential." );
+        options.addOption(Option.builder()
+                .longOpt("target-rows-per-split")
+                .hasArg(true)
+                .argName("ROWS")
+                .desc("Split the token ranges so that each query reads about ROWS partitions, " +
+                        "estimated by system.size_estimates")
+                .build());
 
         options.addOption(Option.builder()
-                .longOpt("connect-timeout")
+                .longOpt("retries")
                 .hasArg(true)
-                .desc("Connection timeout in seconds. Default is 5")
+                .argName("N")
+                .desc("The max retries of a failed query. Default is " + RetryStrategy.DEFAULT_MAX_RETRIES)
                 .build());
 
         options.addOption(Option.builder()
-                .longOpt("request-timeout")
+                .longOpt("retry-delay")
                 .hasArg(true)
-                .desc("Request timeout in seconds. Default is 12")
+                .argName("MS")
+                .desc("The base delay in milliseconds of the exponential backoff between retries. " +
+                        "Default is " + RetryStrategy.DEFAULT_BASE_DELAY)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-errors")
+                .hasArg(true)
+                .argName("N")
+                .desc("The number of the failed queries to tolerate before the export fails. " +
+                        "Default is 0")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("checkpoint")
+                .hasArg(true)
+                .argName("FILE")
+                .desc("Record the completed token ranges of --query-ranges or " +
+                        "--query-partition-keys in FILE. If FILE exists, resume the export " +
+                        "by querying the remaining token ranges only. It requires " +
+                        "--output-dir, or --execute of cql2cql. The rows of the ranges in " +
+                        "flight when the export is killed are removed from the parts, but " +
+                        "the rows of a failed range tolerated by --max-errors are kept and " +
+                        "written again.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-requests-per-host")
+                .hasArg(true)
+                .argName("N")
+                .desc("The max in-flight range queries per replica host. Default is unlimited")
                 .build());
-    }
 
-    abstract protected void printHelp(Options options);
+        options.addOption(Option.builder()
+                .longOpt("max-rows-per-sec")
+                .hasArg(true)
+                .argName("ROWS")
+                .desc("Limit the rows read per second, shared by all the workers. " +
+                        "Default is unlimited")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-mb-per-sec")
+                .hasArg(true)
+                .argName("MB")
+                .desc("Limit the megabytes of the row data read per second, shared by all " +
+                        "the workers. Default is unlimited")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("output-dir")
+                .hasArg(true)
+                .argName("DIR")
+                .desc("Write the output into the part files of DIR instead of STDOUT. " +
+                        "Each query in flight writes its own part, and DIR/" + OutputDirectory.MANIFEST +
+                        " lists the parts and their complete token ranges.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("compress")
+                .desc("Compress the output in gzip. The blocks of the output are compressed " +
+                        "by the workers in parallel.")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-part-size")
+                .hasArg(true)
+                .argName("MB")
+                .desc("Roll over to a new part file after MB megabytes for --output-dir. " +
+                        "A part of --query-ranges or --query-partition-keys is rolled over " +
+                        "after a query only, so it may exceed MB. " +
+                        "Default is " + DEFAULT_MAX_PART_SIZE)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-part-rows")
+                .hasArg(true)
+                .argName("ROWS")
+                .desc("Roll over to a new part file after ROWS rows for --output-dir, " +
+                        "like --max-part-size. Default is unlimited")
+                .build());
 
-    abstract protected void printVersion();
+        options.addOption(Option.builder()
+                .longOpt("status-interval")
+                .hasArg(true)
+                .argName("SEC")
+                .desc("Print the rows/s, MB/s and ETA to STDERR every SEC seconds. " +
+                        "0 disables it. Default is " + DEFAULT_STATUS_INTERVAL)
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("metrics-file")
+                .hasArg(true)
+                .argName("FILE")
+                .desc("Write the summary of the metrics, e.g. the throughput and the " +
+                        "latency percentiles of the queries and pages, to FILE in JSON")
+                .build());
+    }
 
     protected void head(ColumnDefinitions columnDefinitions, PrintStream out) {}
 
-    abstract protected String map(Row row);
+    /**
+     * Map the row and encode it into the output buffer. The mappers which do
+     * not use the output writer, e.g. cql2parquet, write the row themselves.
+     */
+    abstract protected void map(Row row, OutputBuffer out);
 
     public void start(String[] args) {
         try {
@@ -144,97 +289,38 @@ public abstract class AbstractMapper {
         }
     }
 
-    private CommandLine parseArguments(String[] args) {
-
-        // create the command line parser
-        CommandLineParser parser = new DefaultParser();
-
-        // create the Options
-        Options options = new Options();
-        prepareOptions(options);
-        CommandLine commandLine = null;
-
-        try {
-            // parse the command line arguments
-            commandLine = parser.parse(options, args);
-
-            // validate that block-size has been set
-            if (commandLine.getOptions().length == 0 || commandLine.hasOption("h")) {
-                printHelp(options);
-            } else if (commandLine.hasOption("v")) {
-                printVersion();
-            } else {
-
-            }
-
-            if (commandLine.hasOption("consistency")) {
-                String consistency = commandLine.getOptionValue("consistency");
-                try {
-                    ConsistencyLevel.valueOf(consistency.toUpperCase());
-                } catch (Exception e) {
-                    System.err.println("Invalid consistency level: " + consistency);
-                    printHelp(options);
-                }
-            }
-
-            if (commandLine.hasOption("date-format")) {
-                String pattern = commandLine.getOptionValue("date-format");
-                try {
-                    RowUtils.setDateFormat(pattern);
-                } catch (Exception e) {
-                    System.err.println("Invalid date format: " + pattern);
-                    printHelp(options);
-                }
-            }
-
-            if (commandLine.hasOption("time-zone")) {
-                String timeZone = commandLine.getOptionValue("time-zone");
-                try {
-                    RowUtils.setTimeZone(timeZone);
-                } catch (Exception e) {
-                    System.err.println("Invalid time zone: " + timeZone);
-                    printHelp(options);
-                }
-            }
-
-            if (commandLine.hasOption("debug")) {
-                isDebugMode = true;
-            }
-        } catch (ParseException e) {
-            System.err.println("Unexpected exception:" + e.getMessage());
-            System.exit(1);
-        }
-        return commandLine;
-    }
-
-    private HierarchicalINIConfiguration parseCqlRc() {
-        File file = new File(System.getProperty("user.home") + "/.cassandra/cqlshrc");
-        if (commandLine.hasOption("cqlshrc")) {
-            file = new File(commandLine.getOptionValue("cqlshrc"));
-            if (!file.exists()) {
-                System.err.println("cqlshrc file not found: " + file);
-                System.exit(-1);
+    @Override
+    protected void parseOptions(CommandLine commandLine, Options options) {
+        if (commandLine.hasOption("filter")) {
+            try {
+                rowFilter = RowFilter.parse(commandLine.getOptionValue("filter"));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
             }
         }
 
-        if (file.exists()) {
+        if (commandLine.hasOption("output-columns")) {
             try {
-                HierarchicalINIConfiguration configuration = new HierarchicalINIConfiguration(file);
-                return configuration;
-            } catch (ConfigurationException e) {
-                throw new RuntimeException(e);
+                projection = RowProjection.parse(commandLine.getOptionValue("output-columns"));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
             }
         }
-
-        return null;
     }
 
     private void run() {
         BufferedReader in = null;
 
-        boolean parallel = false;
+        if (commandLine.hasOption("checkpoint") && usesOutputWriter() &&
+            !commandLine.hasOption("output-dir")) {
+            // STDOUT cannot be truncated, so a resumed export would corrupt it
+            System.err.println("--checkpoint requires --output-dir");
+            System.exit(1);
+        }
+
         int parallelism = 1;
-        Executor executor = null;
 
         if (commandLine.hasOption("P")) {
             parallelism = Integer.parseInt(commandLine.getOptionValue("parallel"));
@@ -243,28 +329,84 @@ public abstract class AbstractMapper {
             parallelism = Runtime.getRuntime().availableProcessors();
         }
 
-        if (parallelism > 1) {
-            executor = new ForkJoinPool(parallelism);
-            parallel = true;
+        int maxConcurrentQueries = commandLine.hasOption("max-concurrent-queries") ?
+                Integer.parseInt(commandLine.getOptionValue("max-concurrent-queries")) :
+                parallelism > 1 ? parallelism * 2 : 1;
+        concurrentQueries = new Semaphore(maxConcurrentQueries);
+
+        // A worker maps the rows of its queries, and the rows of a query keep
+        // their order. The pages of the queries in flight are interleaved even
+        // on a single worker, so the queries keep their order only if one
+        // query is in flight, the default of -P 1.
+        workers = new ExecutorService[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            String name = "cqlkit-worker-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
         }
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cqlkit-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        boolean headWritten = false;
+        try {
+            if (commandLine.hasOption("output-dir") && usesOutputWriter()) {
+                long maxPartSize = commandLine.hasOption("max-part-size") ?
+                        Long.parseLong(commandLine.getOptionValue("max-part-size")) :
+                        DEFAULT_MAX_PART_SIZE;
+                long maxPartRows = commandLine.hasOption("max-part-rows") ?
+                        Long.parseLong(commandLine.getOptionValue("max-part-rows")) :
+                        0;
+                outputDirectory = new OutputDirectory(
+                        new File(commandLine.getOptionValue("output-dir")),
+                        fileExtension(),
+                        recordSeparator(),
+                        recordTerminator(),
+                        commandLine.hasOption("compress"),
+                        maxPartSize * 1024 * 1024,
+                        maxPartRows,
+                        this::writeHead,
+                        this::writeTail);
+            } else {
+                writer = new OutputWriter(
+                        System.out,
+                        recordSeparator(),
+                        recordTerminator(),
+                        commandLine.hasOption("compress"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-        writeHead();
         try(SessionFactory sessionFactory = SessionFactory.newInstance(commandLine, cqlshrc)) {
             cluster = sessionFactory.getCluster();
             session = sessionFactory.getSession();
 
+            if (commandLine.hasOption("checkpoint")) {
+                checkpoint = new Checkpoint(
+                        new File(commandLine.getOptionValue("checkpoint")),
+                        cluster.getMetadata());
+                if (outputDirectory != null) {
+                    // A range is listed in the manifest before it is checkpointed
+                    for (TokenRange range : outputDirectory.getRanges(cluster.getMetadata())) {
+                        if (!checkpoint.isCompleted(range)) {
+                            checkpoint.complete(range);
+                        }
+                    }
+                }
+            }
+
             // The query source
-            Iterator<String> cqls = null;
+            Iterator<Query> queries = null;
             if (commandLine.hasOption("q")) {
-                cqls = Arrays
-                        .asList(commandLine.getOptionValue("q"))
+                queries = Arrays
+                        .asList(new Query(commandLine.getOptionValue("q"), new StatementCache(session)))
                         .iterator();
             } else if (commandLine.hasOption("query-partition-keys")) {
-                cqls = queryByPartionKeys(sessionFactory);
+                queries = scheduler = queryByPartionKeys(sessionFactory);
             } else if (commandLine.hasOption("query-ranges")) {
-                cqls = queryByRange(sessionFactory);
+                queries = scheduler = queryByRange(sessionFactory);
             } else {
                 if (commandLine.getArgs().length > 0) {
                     // from file input
@@ -275,7 +417,8 @@ public abstract class AbstractMapper {
                     in = new BufferedReader(
                             new InputStreamReader(System.in));
                 }
-                cqls = in.lines().iterator();
+                StatementCache statements = new StatementCache(session);
+                queries = in.lines().map(cql -> new Query(cql, statements)).iterator();
             }
 
             // output
@@ -286,87 +429,114 @@ public abstract class AbstractMapper {
                            commandLine.hasOption("query-ranges");
 
 
-            ConsistencyLevel consistencyLevel =
+            consistencyLevel =
                     commandLine.hasOption("consistency") ?
                     ConsistencyLevel.valueOf(commandLine.getOptionValue("consistency").toUpperCase()) :
                     ConsistencyLevel.ONE;
 
 
-            // Query
+            int maxRetries = commandLine.hasOption("retries") ?
+                    Integer.parseInt(commandLine.getOptionValue("retries")) :
+                    RetryStrategy.DEFAULT_MAX_RETRIES;
+            long retryDelay = commandLine.hasOption("retry-delay") ?
+                    Long.parseLong(commandLine.getOptionValue("retry-delay")) :
+                    RetryStrategy.DEFAULT_BASE_DELAY;
+            retryStrategy = new RetryStrategy(maxRetries, retryDelay, RetryStrategy.DEFAULT_MAX_DELAY);
+            maxErrors = commandLine.hasOption("max-errors") ?
+                    Integer.parseInt(commandLine.getOptionValue("max-errors")) :
+                    0;
+
+            if (commandLine.hasOption("max-rows-per-sec")) {
+                rowLimiter = new TokenBucket(
+                        Double.parseDouble(commandLine.getOptionValue("max-rows-per-sec")));
+            }
+            if (commandLine.hasOption("max-mb-per-sec")) {
+                byteLimiter = new TokenBucket(
+                        Double.parseDouble(commandLine.getOptionValue("max-mb-per-sec")) * 1024 * 1024);
+            }
+
+            int prefetchPages = commandLine.hasOption("prefetch") ?
+                    Integer.parseInt(commandLine.getOptionValue("prefetch")) :
+                    1;
+            prefetchRows = prefetchPages *
+                    cluster.getConfiguration().getQueryOptions().getFetchSize();
+
+            long statusInterval = commandLine.hasOption("status-interval") ?
+                    Long.parseLong(commandLine.getOptionValue("status-interval")) :
+                    DEFAULT_STATUS_INTERVAL;
+            if (statusInterval > 0) {
+                metrics.startReporter(statusInterval);
+            }
+
+            // Query. The queries are pulled lazily as the queries in flight complete.
             boolean isFirstCQL = true;
-            while(cqls.hasNext()) {
-                final String cql = cqls.next().trim();
+            while (true) {
+                concurrentQueries.acquireUninterruptibly();
+                if (!queries.hasNext()) {
+                    concurrentQueries.release();
+                    break;
+                }
+                final Query query = queries.next();
+                final String cql = query.getCql().trim();
 
                 if (cql.isEmpty()) {
+                    if (scheduler != null) {
+                        scheduler.release(query);
+                    }
+                    concurrentQueries.release();
                     continue;
                 }
 
                 // Get the result set definitions.
                 if (isFirstCQL) {
-                    ResultSet rs = session.execute(cql);
-                    head(rs.getColumnDefinitions(), out);
+                    ColumnDefinitions definitions = resultMetadata(query);
+                    if (rowFilter != null) {
+                        rowPredicate = rowFilter.compile(definitions);
+                    }
+                    if (projection != null) {
+                        definitions = projection.compile(definitions, cluster);
+                    }
+                    head(definitions, out);
+                    if (writer != null) {
+                        writeHead(writer);
+                        headWritten = true;
+                    }
                     isFirstCQL = false;
                 }
 
-                final boolean _parallel = parallel;
-                Runnable task = () -> {
-                    int retry = 3;
-                    int retryCount = 0;
-
-                    try {
-                        while(true) {
-                            try {
-                                SimpleStatement stmt = new SimpleStatement(cql);
-                                stmt.setConsistencyLevel(consistencyLevel);
-                                ResultSet rs = session.execute(stmt);
-
-                                StreamSupport
-                                        .stream(rs.spliterator(), false)
-                                        .map(this::map)
-                                        .forEach(this::writeBody);
-                            } catch (Exception e) {
-                                if (retryCount < retry) {
-                                    retryCount++;
-                                    System.err.printf("%s - Retry %d cql: %s\n", new Date(), retryCount, cql);
-                                    try {
-                                        Thread.sleep(3000);
-                                    } catch (InterruptedException e1) {
-                                    }
-                                    continue;
-                                }
-                                System.err.println("Error when execute cql: " + cql);
-                                if (isDebugMode) {
-                                    e.printStackTrace();
-                                } else {
-                                    System.err.println("Error: " + e.getMessage());
-                                }
-                                System.exit(1);
-                            }
-
-                            break;
-                        }
-                    } finally {
-                        if (_parallel) {
-                            System.err.printf("Progress: %d/%d\n",
-                                    completeJobs.incrementAndGet(),
-                                    totalJobs);
-                        }
-                    }
-                };
+                metrics.addQueries(1);
+                new Execution(query).start();
+            }
 
-                if (parallel) {
-                    futures.add(CompletableFuture.runAsync(task, executor));
-                } else {
-                    task.run();
+            // Wait for all the queries in flight
+            concurrentQueries.acquireUninterruptibly(maxConcurrentQueries);
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+            for (ExecutorService worker : workers) {
+                try {
+                    worker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                totalJobs++;
+            }
+            retryExecutor.shutdown();
+
+            finish();
+
+            metrics.stopReporter();
+            System.err.println("Done: " + metrics.statusLine());
+            if (commandLine.hasOption("metrics-file")) {
+                JsonObject settings = new JsonObject();
+                settings.addProperty("parallelism", parallelism);
+                settings.addProperty("fetchSize",
+                        cluster.getConfiguration().getQueryOptions().getFetchSize());
+                settings.addProperty("prefetch", prefetchPages);
+                metrics.writeSummary(new File(commandLine.getOptionValue("metrics-file")), settings);
             }
 
-            // Wait for all futures completion
-            if (parallel) {
-                CompletableFuture
-                        .allOf(futures.toArray(new CompletableFuture[]{}))
-                        .join();
+            if (failedQueries.get() > 0) {
+                System.err.printf("Warning: %d queries failed\n", failedQueries.get());
             }
 
         } catch (IOException e) {
@@ -377,12 +547,319 @@ public abstract class AbstractMapper {
                     in.close();
                 } catch (IOException e) {}
             }
-            writeTail();
+            if (writer != null) {
+                if (!headWritten) {
+                    writeHead(writer);
+                }
+                writeTail(writer);
+                writer.close();
+            } else if (outputDirectory != null) {
+                try {
+                    outputDirectory.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * The columns of the result of the query. They are resolved by preparing
+     * the query, and the query is executed only if it cannot be prepared.
+     */
+    private ColumnDefinitions resultMetadata(Query query) {
+        ColumnDefinitions definitions = query.getResultMetadata();
+        if (definitions == null) {
+            if (isDebugMode) {
+                System.err.println("Cannot prepare the query for its columns, execute it instead: " +
+                        query.getCql());
+            }
+            definitions = session.execute(query.toStatement()).getColumnDefinitions();
         }
+        return definitions;
     }
 
-    private Iterator<String> queryByRange(SessionFactory sessionFactory) {
-        Iterator<String> cqls;
+    /**
+     * A query in flight. The pages are fetched asynchronously, and the rows are
+     * mapped by the worker of the query, so the rows of a query are written
+     * into the buffer in order. For --output-dir, the query writes into a part
+     * of its own until it ends, so the rows of a part are the rows of its
+     * queries one after another. A failed query is retried,
+     * resumed from the last fetched page, or split by the {@link RetryStrategy}.
+     * If the query finally fails and the failed queries exceed the error
+     * budget, the process exits.
+     */
+    private class Execution {
+        private final Query query;
+        private final Executor worker;
+        private final long startNanos = System.nanoTime();
+        private int attempts = 0;
+        private int fetchSize = 0;
+        private PagingState pagingState = null;
+        private ResultSet rs;
+        private ListenableFuture<ResultSet> fetching;
+        // The part of --output-dir written by the query, or null if not acquired yet
+        private OutputDirectory.Part part;
+
+        Execution(Query query) {
+            this.query = query;
+            this.worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        }
+
+        void start() {
+            ResultSetFuture future;
+            long pageStart = System.nanoTime();
+            try {
+                Statement stmt = query.toStatement();
+                stmt.setConsistencyLevel(consistencyLevel);
+                if (fetchSize > 0) {
+                    stmt.setFetchSize(fetchSize);
+                }
+                if (pagingState != null) {
+                    stmt.setPagingState(pagingState);
+                }
+                future = session.executeAsync(stmt);
+            } catch (Exception e) {
+                worker.execute(() -> fail(e));
+                return;
+            }
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    metrics.addPage(System.nanoTime() - pageStart);
+                    rs = result;
+                    fetching = null;
+                    consume();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    fail(t);
+                }
+            }, worker);
+        }
+
+        /**
+         * Map the fetched rows. The next page is requested asynchronously as
+         * soon as the buffered rows drop to <code>prefetchRows</code>, and the
+         * worker maps the rows of the other queries until the page arrives.
+         */
+        private void consume() {
+            try {
+                int columns = rs.getColumnDefinitions().size();
+                OutputBuffer out = buffer();
+                while (true) {
+                    if (!rs.isFullyFetched() &&
+                        rs.getAvailableWithoutFetching() <= prefetchRows &&
+                        (fetching == null || fetching.isDone())) {
+                        long fetchStart = System.nanoTime();
+                        // A failed fetch returns the same future
+                        ListenableFuture<ResultSet> next = rs.fetchMoreResults();
+                        if (next != fetching) {
+                            fetching = next;
+                            fetching.addListener(
+                                    () -> metrics.addPage(System.nanoTime() - fetchStart),
+                                    Runnable::run);
+                        }
+                    }
+
+                    if (rs.getAvailableWithoutFetching() == 0) {
+                        if (rs.isFullyFetched()) {
+                            break;
+                        }
+                        Futures.addCallback(rs.fetchMoreResults(), new FutureCallback<ResultSet>() {
+                            @Override
+                            public void onSuccess(ResultSet result) {
+                                consume();
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                fail(t);
+                            }
+                        }, worker);
+                        return;
+                    }
+
+                    // The rows of a range stay in one part, so that the part lists the range
+                    if (part != null && query.getRange() == null && part.isFull()) {
+                        endQuery(out);
+                        part.close();
+                        part = null;
+                        out = buffer();
+                    }
+
+                    Row row = rs.one();
+                    int size = rowSize(row, columns);
+                    metrics.addRow(size);
+                    if (rowLimiter != null) {
+                        rowLimiter.acquire(1);
+                    }
+                    if (byteLimiter != null) {
+                        byteLimiter.acquire(size);
+                    }
+                    if (rowPredicate != null && !rowPredicate.test(row)) {
+                        continue;
+                    }
+                    map(projection != null ? projection.apply(row) : row, out);
+                }
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            complete();
+        }
+
+        private void complete() {
+            OutputBuffer buffer = buffer();
+            endQuery(buffer);
+            buffer.flush();
+            TokenRange range = query.getRange();
+            if (part != null && range != null) {
+                part.addRange(range);
+            }
+            if (checkpoint != null && range != null) {
+                // Mark the range complete after its output is written
+                if (part != null) {
+                    part.afterWritten(() -> checkpoint.complete(range));
+                } else {
+                    afterWritten(buffer, () -> checkpoint.complete(range));
+                }
+            }
+            releasePart();
+            metrics.completeQuery(
+                    System.nanoTime() - startNanos,
+                    query.getRange() != null ? TokenRangeSplitter.fraction(query.getRange()) : -1);
+            release();
+        }
+
+        private void fail(Throwable e) {
+            String cql = query.toString();
+
+            // The rows of the fetched pages are all consumed when the next
+            // page fails, so the query can be resumed from the next page.
+            if (rs != null && rs.getExecutionInfo().getPagingState() != null) {
+                pagingState = rs.getExecutionInfo().getPagingState();
+            }
+            rs = null;
+            fetching = null;
+
+            RetryStrategy.Decision decision =
+                    retryStrategy.decide(e, query, attempts, pagingState != null);
+            if (decision == RetryStrategy.Decision.SPLIT) {
+                List<Query> subqueries = query.split();
+                if (!subqueries.isEmpty()) {
+                    System.err.printf("%s - Split timed out range into %d ranges: %s\n",
+                            new Date(), subqueries.size(), query.getRange());
+                    metrics.addSplit();
+                    // The query is replaced by the subqueries
+                    metrics.addQueries(-1);
+                    scheduler.requeue(subqueries);
+                    releasePart();
+                    release();
+                    return;
+                }
+                decision = attempts < retryStrategy.getMaxRetries() ?
+                        RetryStrategy.Decision.RETRY :
+                        RetryStrategy.Decision.FAIL;
+            }
+
+            if (decision == RetryStrategy.Decision.RETRY) {
+                if (RetryStrategy.isTimeout(e)) {
+                    // Smaller pages for the dense range
+                    int currentFetchSize = fetchSize > 0 ?
+                            fetchSize :
+                            cluster.getConfiguration().getQueryOptions().getFetchSize();
+                    fetchSize = Math.max(currentFetchSize / 2, 1);
+                }
+                long delay = retryStrategy.delay(attempts);
+                attempts++;
+                metrics.addRetry();
+                System.err.printf("%s - Retry %d cql: %s\n", new Date(), attempts, cql);
+                retryExecutor.schedule(this::start, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            System.err.println("Error when execute cql: " + cql);
+            if (isDebugMode) {
+                e.printStackTrace();
+            } else {
+                System.err.println("Error: " + e.getMessage());
+            }
+            metrics.addFailure();
+            if (failedQueries.incrementAndGet() > maxErrors) {
+                System.exit(1);
+            }
+
+            // The rows written so far are kept, but the range is not listed
+            OutputBuffer buffer = buffer();
+            endQuery(buffer);
+            buffer.flush();
+            releasePart();
+            release();
+        }
+
+        /**
+         * The buffer of the query. For --output-dir, it is the buffer of the
+         * part of the query, which is an idle part or a new one.
+         */
+        private OutputBuffer buffer() {
+            if (outputDirectory == null) {
+                return outputBuffers.get();
+            }
+            if (part == null) {
+                part = idleParts.poll();
+                if (part == null) {
+                    part = outputDirectory.newPart();
+                }
+            }
+            return part.getBuffer();
+        }
+
+        /**
+         * Hand the part over to the next query, or close it if it is full.
+         */
+        private void releasePart() {
+            if (part == null) {
+                return;
+            }
+            if (part.isFull()) {
+                part.close();
+            } else {
+                idleParts.add(part);
+            }
+            part = null;
+        }
+
+        private void release() {
+            if (scheduler != null) {
+                scheduler.release(query);
+            }
+            concurrentQueries.release();
+        }
+    }
+
+    /**
+     * The serialized size of the row as read from the cluster.
+     */
+    private static int rowSize(Row row, int columns) {
+        int size = 0;
+        for (int i = 0; i < columns; i++) {
+            ByteBuffer bytes = row.getBytesUnsafe(i);
+            if (bytes != null) {
+                size += bytes.remaining();
+            }
+        }
+        return size;
+    }
+
+    private RangeScheduler queryByRange(SessionFactory sessionFactory) {
 
         String query = commandLine.getOptionValue("query-ranges");
 
@@ -417,34 +894,14 @@ public abstract class AbstractMapper {
                 .collect(Collectors.toList());
 
 
-        // Build the cql
-        cqls = cluster.getMetadata()
-                .getTokenRanges()
-                .stream()
-                .flatMap(tokenRange -> {
-                    ArrayList<String> cqlList = new ArrayList<>();
-                    for (TokenRange subrange : tokenRange.unwrap()) {
-                        String token = QueryBuilder.token(partitionKeys.toArray(new String[]{}));
-
-                        String cql = String.format("%s where %s > %d and %s <= %d",
-                                query,
-                                token,
-                                subrange.getStart().getValue(),
-                                token,
-                                subrange.getEnd().getValue());
-
-                        cqlList.add(cql);
-
-                    }
-
-                    return cqlList.stream();
-                })
-                .iterator();
-        return cqls;
+        // Prepare the cql once and bind the tokens of each range
+        String token = QueryBuilder.token(partitionKeys.toArray(new String[]{}));
+        PreparedStatement prepared = session.prepare(
+                String.format("%s where %s > ? and %s <= ?", query, token, token));
+        return scheduleTokenRanges(keyspace, table, prepared);
     }
 
-    private Iterator<String> queryByPartionKeys(SessionFactory sessionFactory) {
-        Iterator<String> cqls;
+    private RangeScheduler queryByPartionKeys(SessionFactory sessionFactory) {
         String keyspace = session.getLoggedKeyspace();
         String table = commandLine.getOptionValue("query-partition-keys");
         if (keyspace == null) {
@@ -465,33 +922,87 @@ public abstract class AbstractMapper {
                 .collect(Collectors.toList());
 
 
-        // Build the cql
-        cqls = cluster.getMetadata()
-            .getTokenRanges()
-            .stream()
-            .flatMap(tokenRange -> {
-                ArrayList<String> cqlList = new ArrayList<>();
-                for (TokenRange subrange : tokenRange.unwrap()) {
-                    String token = QueryBuilder.token(partitionKeys.toArray(new String[]{}));
+        // Prepare the cql once and bind the tokens of each range
+        String token = QueryBuilder.token(partitionKeys.toArray(new String[]{}));
+        Select.Selection selection = QueryBuilder
+            .select()
+            .distinct();
+        partitionKeys.forEach(column -> selection.column(column));
 
-                    Select.Selection selection = QueryBuilder
-                        .select()
-                        .distinct();
-                    partitionKeys.forEach(column -> selection.column(column));
+        PreparedStatement prepared = session.prepare(selection
+                .from(table)
+                .where(QueryBuilder.gt(token, QueryBuilder.bindMarker()))
+                .and(QueryBuilder.lte(token, QueryBuilder.bindMarker())));
+        return scheduleTokenRanges(keyspace, table, prepared);
+    }
 
-                    String cql = selection
-                            .from(commandLine.getOptionValue("query-partition-keys"))
-                            .where(QueryBuilder.gt(token, subrange.getStart().getValue()))
-                            .and(QueryBuilder.lte(token, subrange.getEnd().getValue()))
-                            .toString();
+    /**
+     * Build the queries of the token subranges and schedule them across the replicas.
+     */
+    private RangeScheduler scheduleTokenRanges(
+            String keyspace,
+            String table,
+            PreparedStatement prepared)
+    {
+        Metadata metadata = cluster.getMetadata();
+        List<Query> queries = splitTokenRanges(keyspace, table)
+                .stream()
+                .flatMap(subrange -> checkpoint != null ?
+                        checkpoint.remaining(subrange).stream() :
+                        Stream.of(subrange))
+                .map(subrange -> new Query(
+                        subrange,
+                        metadata.getReplicas(keyspace, subrange),
+                        prepared))
+                .collect(Collectors.toList());
 
-                    cqlList.add(cql);
-                }
+        if (checkpoint != null && checkpoint.getCompletedCount() > 0) {
+            System.err.printf("Resume: %d token ranges completed, %d remaining\n",
+                    checkpoint.getCompletedCount(),
+                    queries.size());
+        }
 
-                return cqlList.stream();
-            })
-            .iterator();
-        return cqls;
+        int maxPerHost = commandLine.hasOption("max-requests-per-host") ?
+                Integer.parseInt(commandLine.getOptionValue("max-requests-per-host")) :
+                Integer.MAX_VALUE;
+        // The coverage to estimate the ETA
+        double totalFraction = 0;
+        for (Query query : queries) {
+            double fraction = TokenRangeSplitter.fraction(query.getRange());
+            if (fraction < 0) {
+                totalFraction = 0;
+                break;
+            }
+            totalFraction += fraction;
+        }
+        metrics.setTotalFraction(totalFraction);
+
+        return new RangeScheduler(queries, maxPerHost);
+    }
+
+    private List<TokenRange> splitTokenRanges(String keyspace, String table) {
+        int splits = commandLine.hasOption("splits") ?
+                Integer.parseInt(commandLine.getOptionValue("splits")) :
+                0;
+        long targetRowsPerSplit = commandLine.hasOption("target-rows-per-split") ?
+                Long.parseLong(commandLine.getOptionValue("target-rows-per-split")) :
+                0;
+
+        if (checkpoint != null && !checkpoint.getPlannedRanges().isEmpty()) {
+            // Resume with the ranges of the previous run
+            return checkpoint.getPlannedRanges();
+        }
+
+        List<TokenRange> ranges = new TokenRangeSplitter(session, cluster.getMetadata(), keyspace, table)
+                .split(splits, targetRowsPerSplit);
+        if (checkpoint != null) {
+            try {
+                checkpoint.plan(ranges);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return ranges;
     }
 
     public static List<String> parseKeyspaceAndTable(String query) {
@@ -511,13 +1022,67 @@ public abstract class AbstractMapper {
         return Arrays.asList(keyspace, table);
     }
 
-    public void writeHead() {}
+    /**
+     * The bytes written between two records.
+     */
+    protected byte[] recordSeparator() {
+        return new byte[0];
+    }
+
+    /**
+     * The bytes written after each record.
+     */
+    protected byte[] recordTerminator() {
+        return System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether the mapper writes the records by {@link OutputWriter}. A mapper
+     * which writes its own files returns false and handles --output-dir by
+     * itself.
+     */
+    protected boolean usesOutputWriter() {
+        return true;
+    }
 
-    public void writeBody(String object) {
-        System.out.println(object);
+    /**
+     * Called by the worker when it stops writing the rows of a query into the
+     * buffer, i.e. the query is complete or failed, or the part of the buffer
+     * is full. A mapper which groups the consecutive rows of the buffer should
+     * close the group. The buffers of --output-dir are handed over between the
+     * workers, but a buffer is written by one query at a time.
+     */
+    protected void endQuery(OutputBuffer out) {}
+
+    /**
+     * Called by the worker when a query is complete, to run the callback after
+     * the output of the query is written. For --output-dir, the part of the
+     * query is listed in the manifest before instead. A mapper which writes
+     * elsewhere should run the callback after its writes succeed.
+     */
+    protected void afterWritten(OutputBuffer out, Runnable callback) {
+        out.getWriter().afterWritten(callback);
     }
 
-    public void writeTail() {}
+    /**
+     * Called after all the queries are complete.
+     */
+    protected void finish() {}
+
+    /**
+     * The extension of the part files of --output-dir.
+     */
+    protected String fileExtension() {
+        return "txt";
+    }
+
+    /**
+     * Write the head of the output, e.g. the header row. For --output-dir, it
+     * is written to each part.
+     */
+    protected void writeHead(OutputWriter writer) {}
+
+    protected void writeTail(OutputWriter writer) {}
 
     private static void disableWarning() {
         try {
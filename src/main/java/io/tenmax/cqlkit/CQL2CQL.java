@@ -1,19 +1,75 @@
 package io.tenmax.cqlkit;
 
-import com.datastax.driver.core.CodecRegistry;
-import com.datastax.driver.core.ColumnDefinitions;
-import com.datastax.driver.core.DataType;
-import com.datastax.driver.core.Row;
-import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.*;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
 import java.io.PrintStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CQL2CQL extends AbstractMapper{
+    private static final int DEFAULT_MAX_IN_FLIGHT = 128;
+
+    /**
+     * The writes of a worker between two complete queries. The callback of a
+     * query, e.g. its checkpoint, runs when the writes of the group and of all
+     * the groups before succeed, since the rows of the query may be written
+     * by any of them. A group with a failed write never completes.
+     */
+    private static class Writes {
+        // The writes in flight, the group before and whether the group is open
+        private final AtomicInteger pending;
+        private Runnable callback;
+        private Writes next;
+
+        Writes(int pending) {
+            this.pending = new AtomicInteger(pending);
+        }
+
+        void add() {
+            pending.incrementAndGet();
+        }
+
+        /**
+         * Close the group with the callback, and start the next group.
+         */
+        Writes close(Runnable callback) {
+            this.callback = callback;
+            next = new Writes(2);
+            done();
+            return next;
+        }
+
+        void done() {
+            Writes group = this;
+            while (group != null && group.pending.decrementAndGet() == 0) {
+                group.callback.run();
+                group = group.next;
+            }
+        }
+    }
+
+    @Override
+    protected String fileExtension() {
+        return "cql";
+    }
 
     public static void main(String[] args) {
         CQL2CQL cqlMapper = new CQL2CQL();
@@ -21,13 +77,38 @@ public class CQL2CQL extends AbstractMapper{
     }
 
     private ColumnDefinitions.Definition[] definitions;
+    private RowUtils.StringConverter[] converters;
     private String template;
-    private Pattern pattern = null;
+    // The template split at the placeholders, and its UTF-8 bytes
+    private String[] segments;
+    private byte[][] segmentBytes;
 
-    public CQL2CQL() {
-        pattern = Pattern.compile("\\?");
-    }
+    // The direct execution on the target
+    private Cluster targetCluster;
+    private Session targetSession;
+    private PreparedStatement insert;
+    private Semaphore inFlight;
+    private int maxInFlight;
+    private ScheduledExecutorService retryExecutor;
+    private final AtomicLong failedWrites = new AtomicLong(0);
+    // The writes of the worker since its last complete query
+    private final ThreadLocal<Writes> writes = ThreadLocal.withInitial(() -> new Writes(1));
+
+    // The batches of the consecutive rows of a partition, one per buffer of the worker
+    private int batchSize = 0;
+    private int[] partitionKeyIndexes;
+    private String lineSeparator;
+    private final ThreadLocal<Map<OutputBuffer, Batch>> batches =
+            ThreadLocal.withInitial(IdentityHashMap::new);
 
+    private static class Batch {
+        ByteBuffer[] partitionKey;
+        int size = 0;
+        // The statements to print
+        final StringBuilder statements = new StringBuilder();
+        // The statements to execute for --execute
+        BatchStatement statement;
+    }
 
     @Override
     protected void prepareOptions(Options options) {
@@ -37,6 +118,46 @@ public class CQL2CQL extends AbstractMapper{
                 "the same as PreparedStatement.");
         options.getOption("T").setRequired(true);
         options.addOption("r", "port", true, "Cassandra Port");
+
+        options.addOption(Option.builder()
+                .longOpt("execute")
+                .desc("Execute the template as a prepared statement for each row instead of " +
+                        "printing the statements, e.g. to copy a table")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("target-host")
+                .hasArg(true)
+                .argName("HOSTS")
+                .desc("The contact points of the cluster to execute on. " +
+                        "Default is the source cluster")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("target-port")
+                .hasArg(true)
+                .argName("PORT")
+                .desc("The port of the target cluster. Default is 9042")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("target-keyspace")
+                .hasArg(true)
+                .argName("KEYSPACE")
+                .desc("The keyspace to execute in")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-in-flight")
+                .hasArg(true)
+                .argName("NUM")
+                .desc("The maximum concurrent writes of --execute. Default is " +
+                        DEFAULT_MAX_IN_FLIGHT)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("batch-size")
+                .hasArg(true)
+                .argName("NUM")
+                .desc("Group the statements of the consecutive rows of the same partition " +
+                        "into UNLOGGED BATCHes of at most NUM statements. The partition key " +
+                        "columns must be selected by the query")
+                .build());
     }
 
     @Override
@@ -49,7 +170,7 @@ public class CQL2CQL extends AbstractMapper{
     protected  void printHelp(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         String cmdLineSyntax =
-                "cql2cql [-c contactpoint] [-r CassandraPort] [-q query] [-T template] [FILE]";
+                "cql2cql [-c contactpoint] [-r CassandraPort] [-q query] [-T template] [--execute] [FILE]";
         String header = "File       The file to use as CQL query. If both FILE and QUERY are \n" +
                 "           omitted, query will be read from STDIN.\n\n";
         formatter.printHelp(cmdLineSyntax, header, options, null);
@@ -65,13 +186,26 @@ public class CQL2CQL extends AbstractMapper{
             System.exit(1);
         }
 
-        int matches = 0;
-        Matcher matcher = pattern.matcher(template);
-        while(matcher.find()) {
-            matches++;
+        segments = splitTemplate(template);
+        segmentBytes = new byte[segments.length][];
+        for (int i = 0; i < segments.length; i++) {
+            segmentBytes[i] = segments[i].getBytes(StandardCharsets.UTF_8);
         }
+        int matches = segments.length - 1;
 
         definitions = columnDefinitions.asList().toArray(new ColumnDefinitions.Definition[]{});
+        converters = RowUtils.toCqlConverters(columnDefinitions);
+
+        if (commandLine.hasOption("batch-size")) {
+            batchSize = Integer.parseInt(commandLine.getOptionValue("batch-size"));
+            partitionKeyIndexes = partitionKeyIndexes(columnDefinitions);
+            lineSeparator = new String(recordTerminator(), StandardCharsets.UTF_8);
+        }
+
+        if (commandLine.hasOption("execute")) {
+            prepareExecute(columnDefinitions);
+            return;
+        }
 
         if(matches != definitions.length) {
             System.err.printf("Template argument count mismtach! %d != %d\n",
@@ -80,22 +214,342 @@ public class CQL2CQL extends AbstractMapper{
         }
     }
 
+    /**
+     * The indexes of the partition key columns of the source table in the result.
+     */
+    private int[] partitionKeyIndexes(ColumnDefinitions columnDefinitions) {
+        String keyspace = columnDefinitions.getKeyspace(0);
+        String table = columnDefinitions.getTable(0);
+        KeyspaceMetadata keyspaceMetadata = cluster.getMetadata().getKeyspace(Metadata.quote(keyspace));
+        TableMetadata tableMetadata = keyspaceMetadata != null ?
+                keyspaceMetadata.getTable(Metadata.quote(table)) :
+                null;
+        if (tableMetadata == null) {
+            System.err.printf("Cannot find the partition key of %s.%s\n", keyspace, table);
+            System.exit(1);
+        }
+
+        List<ColumnMetadata> partitionKey = tableMetadata.getPartitionKey();
+        int[] indexes = new int[partitionKey.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = columnDefinitions.getIndexOf(Metadata.quote(partitionKey.get(i).getName()));
+            if (indexes[i] < 0) {
+                System.err.printf("--batch-size needs the partition key column '%s' in the query\n",
+                        partitionKey.get(i).getName());
+                System.exit(1);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Whether the row starts a new batch, i.e. the partition or the size of
+     * the current batch is different.
+     */
+    private boolean isNewBatch(Batch batch, ByteBuffer[] partitionKey) {
+        return batch.size == 0 ||
+               batch.size >= batchSize ||
+               !Arrays.equals(batch.partitionKey, partitionKey);
+    }
+
+    private ByteBuffer[] partitionKey(Row row) {
+        ByteBuffer[] partitionKey = new ByteBuffer[partitionKeyIndexes.length];
+        for (int i = 0; i < partitionKey.length; i++) {
+            partitionKey[i] = row.getBytesUnsafe(partitionKeyIndexes[i]);
+        }
+        return partitionKey;
+    }
+
+    /**
+     * Connect to the target and prepare the template. The values are bound as
+     * the serialized bytes of the source, so the types must match.
+     */
+    private void prepareExecute(ColumnDefinitions columnDefinitions) {
+        String keyspace = commandLine.getOptionValue("target-keyspace");
+        if (commandLine.hasOption("target-host")) {
+            Cluster.Builder builder = Cluster.builder()
+                    .addContactPoints(commandLine.getOptionValue("target-host").split(","))
+                    .withPort(Integer.parseInt(commandLine.getOptionValue("target-port", "9042")));
+            if (commandLine.hasOption("u")) {
+                builder.withCredentials(commandLine.getOptionValue("u"),
+                        commandLine.getOptionValue("p"));
+            }
+            targetCluster = builder.build();
+            targetSession = keyspace != null ?
+                    targetCluster.connect(keyspace) :
+                    targetCluster.connect();
+        } else if (keyspace != null) {
+            targetSession = cluster.connect(keyspace);
+        } else {
+            targetSession = session;
+        }
+
+        insert = targetSession.prepare(template);
+        ColumnDefinitions variables = insert.getVariables();
+        if (variables.size() != columnDefinitions.size()) {
+            System.err.printf("Template argument count mismtach! %d != %d\n",
+                    variables.size(), columnDefinitions.size());
+            System.exit(1);
+        }
+        for (int i = 0; i < variables.size(); i++) {
+            if (!variables.getType(i).equals(columnDefinitions.getType(i))) {
+                System.err.printf("Template argument type mismatch! %s is %s, but %s is %s\n",
+                        variables.getName(i), variables.getType(i),
+                        columnDefinitions.getName(i), columnDefinitions.getType(i));
+                System.exit(1);
+            }
+        }
+
+        maxInFlight = commandLine.hasOption("max-in-flight") ?
+                Integer.parseInt(commandLine.getOptionValue("max-in-flight")) :
+                DEFAULT_MAX_IN_FLIGHT;
+        inFlight = new Semaphore(maxInFlight);
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cqlkit-write-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     @Override
-    protected String map(Row row) {
+    protected void map(Row row, OutputBuffer out) {
+        if (insert == null) {
+            writeStatement(row, out);
+            return;
+        }
 
-        Matcher matcher = pattern.matcher(template);
-        StringBuffer result = new StringBuffer();
+        BoundStatement bound = insert.bind();
         for (int i = 0; i < definitions.length; i++) {
-            Object value = row.getObject(i);
-            String key = definitions[i].getName();
-            DataType type = definitions[i].getType();
+            bound.setBytesUnsafe(i, row.getBytesUnsafe(i));
+        }
+
+        if (batchSize <= 0) {
+            executeAsync(bound);
+            return;
+        }
+
+        Batch batch = batches.get().computeIfAbsent(out, key -> new Batch());
+        ByteBuffer[] partitionKey = partitionKey(row);
+        if (isNewBatch(batch, partitionKey)) {
+            executeBatch(batch);
+            batch.statement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        }
+        batch.statement.add(bound);
+        batch.partitionKey = partitionKey;
+        batch.size++;
+    }
+
+    private void executeBatch(Batch batch) {
+        if (batch.size == 0) {
+            return;
+        }
+        // A single statement needs no batch
+        executeAsync(batch.size == 1 ?
+                batch.statement.getStatements().iterator().next() :
+                batch.statement);
+        batch.statement = null;
+        batch.partitionKey = null;
+        batch.size = 0;
+    }
+
+    private void executeAsync(Statement statement) {
+        // Block the reader while the writes are saturated
+        inFlight.acquireUninterruptibly();
+        Writes group = writes.get();
+        group.add();
+        write(statement, group, 0);
+    }
 
-            matcher.find();
-            TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
-            matcher.appendReplacement(result, typeCodec.format(value));
+    private void write(Statement statement, Writes group, int attempts) {
+        Futures.addCallback(targetSession.executeAsync(statement), new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                group.done();
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (retryStrategy.decide(t, attempts) == RetryStrategy.Decision.RETRY) {
+                    retryExecutor.schedule(
+                            () -> write(statement, group, attempts + 1),
+                            retryStrategy.delay(attempts + 1),
+                            TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                inFlight.release();
+                failedWrites.incrementAndGet();
+                System.err.println("Error when execute cql: " + template);
+                if (isDebugMode) {
+                    t.printStackTrace();
+                } else {
+                    System.err.println("Error: " + t.getMessage());
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Close the batch of the buffer.
+     */
+    @Override
+    protected void endQuery(OutputBuffer out) {
+        Batch batch = batches.get().remove(out);
+        if (batch == null) {
+            return;
+        }
+
+        if (insert != null) {
+            executeBatch(batch);
+        } else {
+            writeBatch(batch, out);
         }
+    }
 
-        matcher.appendTail(result);
-        return result.toString();
+    /**
+     * Write the batch as a record. A single statement needs no batch.
+     */
+    private void writeBatch(Batch batch, OutputBuffer out) {
+        if (batch.size == 0) {
+            return;
+        }
+
+        out.startRecord();
+        if (batch.size > 1) {
+            out.writeUtf8("BEGIN UNLOGGED BATCH");
+            out.writeUtf8(lineSeparator);
+        }
+        out.writeUtf8(batch.statements);
+        if (batch.size > 1) {
+            out.writeUtf8(lineSeparator);
+            out.writeUtf8("APPLY BATCH;");
+        }
+        out.endRecord();
+
+        batch.statements.setLength(0);
+        batch.partitionKey = null;
+        batch.size = 0;
+    }
+
+    /**
+     * For --execute, run the callback after the writes of the query succeed.
+     */
+    @Override
+    protected void afterWritten(OutputBuffer out, Runnable callback) {
+        if (insert == null) {
+            super.afterWritten(out, callback);
+            return;
+        }
+        writes.set(writes.get().close(callback));
+    }
+
+    @Override
+    protected boolean usesOutputWriter() {
+        return !commandLine.hasOption("execute");
+    }
+
+    /**
+     * Wait for the writes in flight.
+     */
+    @Override
+    protected void finish() {
+        if (insert == null) {
+            return;
+        }
+
+        inFlight.acquireUninterruptibly(maxInFlight);
+        retryExecutor.shutdown();
+        if (targetCluster != null) {
+            targetCluster.close();
+        } else if (targetSession != session) {
+            targetSession.close();
+        }
+
+        if (failedWrites.get() > 0) {
+            System.err.printf("Error: %d writes failed\n", failedWrites.get());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Split the template at the '?' placeholders. A '?' in a string literal or
+     * a quoted identifier is not a placeholder.
+     */
+    static String[] splitTemplate(String template) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < template.length(); i++) {
+            char c = template.charAt(i);
+            if (quote != 0) {
+                // A doubled quote is an escaped quote, and keeps the quoting
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                segments.add(template.substring(start, i));
+                start = i + 1;
+            }
+        }
+        segments.add(template.substring(start));
+        return segments.toArray(new String[0]);
+    }
+
+    private void appendStatement(Row row, StringBuilder result) {
+        for (int i = 0; i < converters.length; i++) {
+            result.append(segments[i]).append(converters[i].convert(row, i));
+        }
+        result.append(segments[converters.length]);
+    }
+
+    /**
+     * Write the literal segments and the values directly into the buffer.
+     */
+    private void writeStatement(Row row, OutputBuffer out) {
+        if (batchSize > 0) {
+            addToBatch(row, out);
+            return;
+        }
+
+        out.startRecord();
+        try {
+            for (int i = 0; i < converters.length; i++) {
+                out.write(segmentBytes[i]);
+                out.writeUtf8(converters[i].convert(row, i));
+            }
+            out.write(segmentBytes[converters.length]);
+        } catch (RuntimeException e) {
+            out.discardRecord();
+            throw e;
+        }
+        out.endRecord();
+    }
+
+    /**
+     * Add the statement to the batch of the buffer. The batch is written when
+     * the partition changes, the batch is full, or the query ends.
+     */
+    private void addToBatch(Row row, OutputBuffer out) {
+        Batch batch = batches.get().computeIfAbsent(out, key -> new Batch());
+        ByteBuffer[] partitionKey = partitionKey(row);
+        if (isNewBatch(batch, partitionKey)) {
+            writeBatch(batch, out);
+        }
+
+        int length = batch.statements.length();
+        try {
+            if (batch.size > 0) {
+                batch.statements.append(lineSeparator);
+            }
+            appendStatement(row, batch.statements);
+        } catch (RuntimeException e) {
+            batch.statements.setLength(length);
+            throw e;
+        }
+        batch.partitionKey = partitionKey;
+        batch.size++;
     }
 }
@@ -9,13 +9,16 @@ import org.apache.commons.csv.CSVPrinter;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class CQL2CSV extends AbstractMapper{
 
     private ColumnDefinitions.Definition[] definitions;
+    private RowUtils.StringConverter[] converters;
     private CSVFormat csvFormat;
+    private byte[] header;
 
     @Override
     protected void prepareOptions(Options options) {
@@ -50,6 +53,7 @@ public class CQL2CSV extends AbstractMapper{
     @Override
     protected void head(ColumnDefinitions columnDefinitions, PrintStream out) {
         definitions = columnDefinitions.asList().toArray(new ColumnDefinitions.Definition[]{});
+        converters = RowUtils.toStringConverters(columnDefinitions);
         csvFormat = CSVFormat.DEFAULT;
 
         // Print the header
@@ -65,10 +69,12 @@ public class CQL2CSV extends AbstractMapper{
             }
 
             try {
+                StringBuilder builder = new StringBuilder();
                 CSVPrinter print = csvFormat
                         .withHeader(list.toArray(new String[]{}))
-                        .print(out);
+                        .print(builder);
                 print.flush();
+                header = builder.toString().getBytes(StandardCharsets.UTF_8);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -76,30 +82,36 @@ public class CQL2CSV extends AbstractMapper{
     }
 
     @Override
-    protected String map(Row row) {
-        StringBuffer stringBuffer = new StringBuffer();
-        try {
-            CSVPrinter csvPrinter = new CSVPrinter(stringBuffer, csvFormat);
+    protected String fileExtension() {
+        return "csv";
+    }
+
+    @Override
+    protected void writeHead(OutputWriter writer) {
+        if (header != null) {
+            writer.writeRaw(header);
+        }
+    }
 
+    @Override
+    protected void map(Row row, OutputBuffer out) {
+        out.startRecord();
+        try {
+            boolean first = true;
             if (lineNumberEnabled) {
-                csvPrinter.print(lineNumber.getAndIncrement());
+                CSVEncoder.writeCell(out, Integer.toString(lineNumber.getAndIncrement()), true);
+                first = false;
             }
 
             for (int i = 0; i < definitions.length; i++) {
-                String value = RowUtils.toString(definitions[i].getType(), row.getObject(i));
-                csvPrinter.print(value);
+                CSVEncoder.writeCell(out, converters[i].convert(row, i), first);
+                first = false;
             }
-
-//            if (isRangeQuery) {
-//                Token t = row.getPartitionKeyToken();
-//                String token = String.format("%.2f%%", (((Long) t.getValue() >> 48) + 32768) / 65535f * 100);
-//                csvPrinter.print(token);
-//            }
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            out.discardRecord();
+            throw e;
         }
-        return stringBuffer.toString();
+        out.endRecord();
     }
 
     public static void main(String[] args) {
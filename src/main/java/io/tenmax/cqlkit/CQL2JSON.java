@@ -1,29 +1,20 @@
 package io.tenmax.cqlkit;
 
 import com.datastax.driver.core.ColumnDefinitions;
-import com.datastax.driver.core.DataType;
 import com.datastax.driver.core.Row;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonWriter;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
 
 public class CQL2JSON extends AbstractMapper{
 
-    private ColumnDefinitions.Definition[] definitions;
-    private Gson gson = new Gson();
+    private RowUtils.JsonConverter[] converters;
     private HashSet<String> jsonColumns = new HashSet<>();
-    private JsonWriter jsonWriter;
+    private JsonEncoder.Mode jsonColumnsMode = JsonEncoder.Mode.PARSE;
 
     @Override
     protected void prepareOptions(Options options) {
@@ -32,6 +23,14 @@ public class CQL2JSON extends AbstractMapper{
         options.addOption("j", "json-columns", true, "The columns that contains JSON string. " +
                 "The content would be used as JSON object instead of plain text. " +
                 "Columns are separated by comma.");
+        options.addOption(Option.builder()
+                .longOpt("json-columns-mode")
+                .hasArg(true)
+                .argName("MODE")
+                .desc("How to output the JSON columns. 'parse' parses and re-encodes the content, " +
+                        "'validate' validates the content and outputs it as it is, " +
+                        "'raw' outputs the content as it is without validation. Default is 'parse'")
+                .build());
         options.addOption("a", "array-output", false, "Use JSON array to wrap JSON objects " +
                 "instead of JSON lines.");
         options.addOption("l", "linenumbers", false,
@@ -61,89 +60,83 @@ public class CQL2JSON extends AbstractMapper{
 
     @Override
     protected void head(ColumnDefinitions columnDefinitions, PrintStream out) {
-        definitions = columnDefinitions.asList().toArray(new ColumnDefinitions.Definition[]{});
-
         // Json Columns
         if (commandLine.hasOption("j")) {
             String cols = commandLine.getOptionValue("j");
             String[] arCols = cols.split(",");
             jsonColumns.addAll(Arrays.asList(arCols));
         }
-    }
-
-    @Override
-    protected String map(Row row) {
-        JsonObject root = new JsonObject();
 
-        if (lineNumberEnabled) {
-            root.addProperty("linenumber", lineNumber.getAndIncrement());
+        if (commandLine.hasOption("json-columns-mode")) {
+            String mode = commandLine.getOptionValue("json-columns-mode");
+            try {
+                jsonColumnsMode = JsonEncoder.Mode.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid json columns mode: " + mode);
+                System.exit(1);
+            }
         }
 
-        for (int i = 0; i < definitions.length; i++) {
-            Object value = row.getObject(i);
-            String key = definitions[i].getName();
-            DataType type = definitions[i].getType();
+        converters = RowUtils.toJsonConverters(columnDefinitions, jsonColumns, jsonColumnsMode);
+    }
 
-            if (value == null) {
-                continue;
+    @Override
+    protected void map(Row row, OutputBuffer out) {
+        out.startRecord();
+        try {
+            out.write('{');
+            boolean first = true;
+
+            if (lineNumberEnabled) {
+                JsonEncoder.writeName(out, "linenumber", true);
+                JsonEncoder.writeNumber(out, lineNumber.getAndIncrement());
+                first = false;
             }
 
-            if (type.getName() == DataType.Name.LIST ||
-                    type.getName() == DataType.Name.SET) {
-                Collection collection = (Collection) value;
-                if (collection.size() == 0) {
-                    continue;
-                }
-            } else if (type.getName() == DataType.Name.MAP) {
-                Map map = (Map) value;
-                if (map.size() == 0) {
-                    continue;
+            for (int i = 0; i < converters.length; i++) {
+                if (converters[i].write(out, row, i, first)) {
+                    first = false;
                 }
             }
 
-            JsonElement jsonValue =
-                    RowUtils.toJson(type, value, jsonColumns.contains(key));
-            root.add(key, jsonValue);
+            out.write('}');
+        } catch (RuntimeException e) {
+            out.discardRecord();
+            throw e;
         }
+        out.endRecord();
+    }
+
+    @Override
+    protected byte[] recordSeparator() {
+        return commandLine.hasOption("a") ?
+                new byte[] {','} :
+                super.recordSeparator();
+    }
 
-        return gson.toJson(root);
+    @Override
+    protected byte[] recordTerminator() {
+        return commandLine.hasOption("a") ?
+                new byte[0] :
+                super.recordTerminator();
     }
 
     @Override
-    public void writeHead() {
-        if (commandLine.hasOption("a")) {
-            try {
-                jsonWriter = new JsonWriter(new OutputStreamWriter(System.out));
-                jsonWriter.beginArray();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    protected String fileExtension() {
+        return "json";
     }
 
     @Override
-    public void writeBody(String line)  {
+    protected void writeHead(OutputWriter writer) {
         if (commandLine.hasOption("a")) {
-            try {
-                jsonWriter.jsonValue(line);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {
-            System.out.println(line);
+            writer.writeRaw(new byte[] {'['});
         }
     }
 
     @Override
-    public void writeTail() {
+    protected void writeTail(OutputWriter writer) {
         if (commandLine.hasOption("a")) {
-            try {
-                jsonWriter.endArray();
-                jsonWriter.flush();
-                jsonWriter.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            writer.writeRaw(new byte[] {']'});
         }
     }
 
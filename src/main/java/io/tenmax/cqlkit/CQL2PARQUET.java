@@ -0,0 +1,209 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CQL2PARQUET extends AbstractMapper {
+    private static final int DEFAULT_ROW_GROUP_SIZE = 64;
+
+    private ColumnDefinitions columnDefinitions;
+    private CompressionCodecName codec;
+    private int rowGroupSize;
+    private File outputDir;
+
+    // The writer of STDOUT, shared by the workers
+    private ParquetWriter<Row> sharedWriter;
+    // The writers of the part files, one per worker
+    private final ThreadLocal<ParquetWriter<Row>> partWriters =
+            ThreadLocal.withInitial(this::newPartWriter);
+    private final List<ParquetWriter<Row>> writers = new ArrayList<>();
+    private final AtomicInteger partIndex = new AtomicInteger(0);
+
+    @Override
+    protected void prepareOptions(Options options) {
+        super.prepareOptions(options);
+
+        options.addOption(Option.builder()
+                .longOpt("parquet-compression")
+                .hasArg(true)
+                .argName("CODEC")
+                .desc("The compression codec of the Parquet pages. The codec should be " +
+                        "'uncompressed', 'snappy' or 'gzip'. Default is 'snappy'")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("row-group-size")
+                .hasArg(true)
+                .argName("MB")
+                .desc("The size of the Parquet row groups. Each worker buffers a row group " +
+                        "in memory. Default is " + DEFAULT_ROW_GROUP_SIZE)
+                .build());
+        options.addOption("r", "port", true, "Cassandra Port");
+    }
+
+    @Override
+    protected void printVersion() {
+        System.out.println("cql2parquet version " + Consts.VERSION);
+        System.exit(0);
+    }
+
+    @Override
+    protected  void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        String cmdLineSyntax =
+                "cql2parquet [-c contactpoint] [-r CassandraPort] [-q query] [--output-dir DIR] [FILE]";
+        String header = "File       The file to use as CQL query. If both FILE and QUERY are \n" +
+                "           omitted, query will be read from STDIN.\n\n" +
+                "The output is written to STDOUT, or one part file per worker if\n" +
+                "--output-dir is specified. The output directory should be empty.\n\n";
+        formatter.printHelp(cmdLineSyntax, header, options, null);
+
+        System.exit(0);
+    }
+
+    @Override
+    protected void head(ColumnDefinitions columnDefinitions, PrintStream out) {
+        if (commandLine.hasOption("checkpoint")) {
+            // A Parquet file is only readable after its footer is written
+            System.err.println("--checkpoint is not supported by cql2parquet");
+            System.exit(1);
+        }
+        if (commandLine.hasOption("compress")) {
+            // The pages are compressed by --parquet-compression instead
+            System.err.println("--compress is not supported by cql2parquet, use --parquet-compression");
+            System.exit(1);
+        }
+
+        String codecName = commandLine.getOptionValue("parquet-compression", "snappy");
+        try {
+            codec = CompressionCodecName.valueOf(codecName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid parquet compression: " + codecName);
+            System.exit(1);
+        }
+
+        rowGroupSize = (commandLine.hasOption("row-group-size") ?
+                Integer.parseInt(commandLine.getOptionValue("row-group-size")) :
+                DEFAULT_ROW_GROUP_SIZE) * 1024 * 1024;
+
+        this.columnDefinitions = columnDefinitions;
+
+        if (commandLine.hasOption("output-dir")) {
+            outputDir = new File(commandLine.getOptionValue("output-dir"));
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                System.err.println("Cannot create the output directory: " + outputDir);
+                System.exit(1);
+            }
+            // The parts are numbered from 0, and would overwrite the parts of a former run
+            String[] files = outputDir.list();
+            if (files == null || files.length > 0) {
+                System.err.println("The output directory is not empty: " + outputDir);
+                System.exit(1);
+            }
+        } else {
+            sharedWriter = newWriter(new StreamOutputFile(System.out));
+        }
+    }
+
+    @Override
+    protected void map(Row row, OutputBuffer out) {
+        try {
+            if (sharedWriter != null) {
+                synchronized (sharedWriter) {
+                    sharedWriter.write(row);
+                }
+            } else {
+                partWriters.get().write(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ParquetWriter<Row> newPartWriter() {
+        File file = new File(outputDir,
+                String.format("part-%05d.parquet", partIndex.getAndIncrement()));
+        try {
+            return newWriter(new StreamOutputFile(new FileOutputStream(file)));
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ParquetWriter<Row> newWriter(OutputFile file) {
+        try {
+            ParquetWriter<Row> writer = new Builder(file, new RowWriteSupport(columnDefinitions))
+                    .withCompressionCodec(codec)
+                    .withRowGroupSize(rowGroupSize)
+                    .build();
+            synchronized (writers) {
+                writers.add(writer);
+            }
+            return writer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected boolean usesOutputWriter() {
+        return false;
+    }
+
+    /**
+     * Write the last row groups and the footers.
+     */
+    @Override
+    protected void finish() {
+        synchronized (writers) {
+            for (ParquetWriter<Row> writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            writers.clear();
+        }
+    }
+
+    static class Builder extends ParquetWriter.Builder<Row, Builder> {
+        private final RowWriteSupport writeSupport;
+
+        Builder(OutputFile file, RowWriteSupport writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<Row> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    public static void main(String[] args) {
+        // Silence the logs of Hadoop
+        System.setProperty("org.apache.commons.logging.Log",
+                "org.apache.commons.logging.impl.NoOpLog");
+
+        CQL2PARQUET cql2parquet = new CQL2PARQUET();
+        cql2parquet.start(args);
+    }
+}
@@ -0,0 +1,126 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Load the CSV of cql2csv into a table.
+ */
+public class CSV2CQL extends AbstractLoader<CSVRecord> {
+
+    private List<String> header;
+    private RowUtils.StringParser[] parsers;
+    private TypeCodec<Object>[] codecs;
+
+    @Override
+    protected void prepareOptions(Options options) {
+        super.prepareOptions(options);
+
+        options.addOption("H", "no-header-row", false,
+                "The input has no header row. The columns are --columns, or all the " +
+                        "columns of the table in order.");
+    }
+
+    @Override
+    protected void printVersion() {
+        System.out.println("csv2cql version " + Consts.VERSION);
+        System.exit(0);
+    }
+
+    @Override
+    protected void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        String cmdLineSyntax =
+                "csv2cql [-c contactpoint] [-r CassandraPort] -t table [FILE...]";
+        String header = "FILE       The CSV files to load, and the files ending with .gz are \n" +
+                "           decompressed. If omitted, the CSV will be read from STDIN.\n\n";
+        formatter.printHelp(cmdLineSyntax, header, options, null);
+
+        System.exit(0);
+    }
+
+    /**
+     * The CSV is tokenized here since a quoted field may span lines. The
+     * records are bound by the header of the first input, so the header row of
+     * each later input should be the same.
+     */
+    @Override
+    protected Iterator<CSVRecord> records(BufferedReader in) throws IOException {
+        Iterator<CSVRecord> records = CSVFormat.DEFAULT.parse(in).iterator();
+        if (!commandLine.hasOption("H") && records.hasNext()) {
+            List<String> names = new ArrayList<>();
+            records.next().forEach(names::add);
+            if (header == null) {
+                header = names;
+            } else if (!header.equals(names)) {
+                throw new IllegalArgumentException(
+                        "The header row " + names + " differs from the first input " + header);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    protected List<String> columns(TableMetadata table) {
+        if (header != null) {
+            return header;
+        }
+        return table.getColumns().stream()
+                .map(ColumnMetadata::getName)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void head(List<ColumnMetadata> columns) {
+        parsers = new RowUtils.StringParser[columns.size()];
+        codecs = (TypeCodec<Object>[]) new TypeCodec<?>[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            DataType type = columns.get(i).getType();
+            parsers[i] = RowUtils.toStringParser(type);
+            codecs[i] = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        }
+    }
+
+    /**
+     * An empty field is a null of cql2csv, so it is unset.
+     */
+    @Override
+    protected void bind(CSVRecord record, BoundStatement statement) {
+        if (record.size() != parsers.length) {
+            throw new IllegalArgumentException(String.format(
+                    "%d fields, but %d columns", record.size(), parsers.length));
+        }
+
+        for (int i = 0; i < parsers.length; i++) {
+            String text = record.get(i);
+            if (!text.isEmpty()) {
+                statement.set(i, parsers[i].parse(text), codecs[i]);
+            }
+        }
+    }
+
+    @Override
+    protected int size(CSVRecord record) {
+        int size = record.size();
+        for (String field : record) {
+            size += field.length();
+        }
+        return size;
+    }
+
+    public static void main(String[] args) {
+        CSV2CQL csv2cql = new CSV2CQL();
+        csv2cql.start(args);
+    }
+}
@@ -0,0 +1,81 @@
+package io.tenmax.cqlkit;
+
+/**
+ * The CSV encoder which writes the cells directly into an {@link OutputBuffer}.
+ * The output is the same as {@link org.apache.commons.csv.CSVPrinter} with
+ * {@link org.apache.commons.csv.CSVFormat#DEFAULT}, without the intermediate
+ * strings and the synchronized buffers.
+ */
+public class CSVEncoder {
+    private static final char DELIMITER = ',';
+    private static final char QUOTE = '"';
+    private static final char COMMENT = '#';
+    private static final char SP = ' ';
+    private static final char CR = '\r';
+    private static final char LF = '\n';
+
+    private CSVEncoder() {}
+
+    /**
+     * Write a cell. A null value is written as an empty cell.
+     *
+     * @param out The buffer to write
+     * @param value The cell value
+     * @param first Whether this cell is the first cell of the record
+     */
+    public static void writeCell(OutputBuffer out, CharSequence value, boolean first) {
+        if (!first) {
+            out.write(DELIMITER);
+        }
+
+        if (value == null) {
+            value = "";
+        }
+
+        if (!needQuote(value, first)) {
+            out.writeUtf8(value);
+            return;
+        }
+
+        out.write(QUOTE);
+        int start = 0;
+        int len = value.length();
+        for (int pos = 0; pos < len; pos++) {
+            if (value.charAt(pos) == QUOTE) {
+                // Write the quote twice
+                out.writeUtf8(value, start, pos + 1);
+                start = pos;
+            }
+        }
+        out.writeUtf8(value, start, len);
+        out.write(QUOTE);
+    }
+
+    /**
+     * The same rules as the MINIMAL quote mode of commons-csv.
+     */
+    private static boolean needQuote(CharSequence value, boolean first) {
+        int len = value.length();
+        if (len == 0) {
+            // An empty first cell is quoted, otherwise the record would be an empty line.
+            return first;
+        }
+
+        char c = value.charAt(0);
+        if (first && (c < '0' || (c > '9' && c < 'A') || (c > 'Z' && c < 'a') || (c > 'z'))) {
+            return true;
+        }
+        if (c <= COMMENT) {
+            return true;
+        }
+
+        for (int pos = 0; pos < len; pos++) {
+            c = value.charAt(pos);
+            if (c == LF || c == CR || c == QUOTE || c == DELIMITER) {
+                return true;
+            }
+        }
+
+        return value.charAt(len - 1) <= SP;
+    }
+}
@@ -0,0 +1,189 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The journal of a range export. It records the planned token subranges and the
+ * completed ones, so a rerun with the same arguments resumes from the
+ * subranges which are not complete yet.
+ *
+ * The format is one subrange per line:
+ * <pre>
+ * plan &lt;start&gt; &lt;end&gt;
+ * done &lt;start&gt; &lt;end&gt;
+ * </pre>
+ *
+ * The checkpoint records no output offsets. With <code>--output-dir</code> a
+ * range is completed only after the manifest lists it with the bytes of its
+ * part, so a resumed export truncates the parts to the completed ranges, and
+ * completes the ranges listed in the manifest but missing here.
+ */
+public class Checkpoint implements AutoCloseable {
+    private static final String PLAN = "plan";
+    private static final String DONE = "done";
+
+    private final Metadata metadata;
+    private final List<TokenRange> plannedRanges = new ArrayList<>();
+    private final Set<TokenRange> completedRanges = new HashSet<>();
+    private final Writer journal;
+
+    public Checkpoint(File file, Metadata metadata) throws IOException {
+        this.metadata = metadata;
+
+        if (file.exists()) {
+            // The last line may be partially written by a killed export
+            truncateToLastLine(file);
+
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 3) {
+                    continue;
+                }
+
+                TokenRange range = metadata.newTokenRange(
+                        metadata.newToken(fields[1]),
+                        metadata.newToken(fields[2]));
+                if (PLAN.equals(fields[0])) {
+                    plannedRanges.add(range);
+                } else if (DONE.equals(fields[0])) {
+                    completedRanges.add(range);
+                }
+            }
+        }
+
+        journal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Remove the bytes after the last new line, so a partial line is neither
+     * read nor completed by the next line.
+     */
+    private static void truncateToLastLine(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            while (length > 0) {
+                raf.seek(length - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * The subranges planned by the previous run, or empty if it is a new export.
+     */
+    public List<TokenRange> getPlannedRanges() {
+        return plannedRanges;
+    }
+
+    public synchronized void plan(List<TokenRange> ranges) throws IOException {
+        for (TokenRange range : ranges) {
+            write(PLAN, range);
+        }
+        plannedRanges.addAll(ranges);
+        journal.flush();
+    }
+
+    public synchronized boolean isCompleted(TokenRange range) {
+        return completedRanges.contains(range);
+    }
+
+    /**
+     * The parts of the planned subrange which are not complete yet. A subrange
+     * may be partially complete if it was split after a timeout.
+     *
+     * @param range An unwrapped subrange
+     */
+    public synchronized List<TokenRange> remaining(TokenRange range) {
+        List<TokenRange> remaining = new ArrayList<>();
+        if (completedRanges.contains(range)) {
+            return remaining;
+        }
+
+        List<TokenRange> completed = new ArrayList<>();
+        for (TokenRange completedRange : completedRanges) {
+            if (completedRange.intersects(range)) {
+                completed.addAll(completedRange.intersectWith(range));
+            }
+        }
+        if (completed.isEmpty()) {
+            remaining.add(range);
+            return remaining;
+        }
+        Collections.sort(completed);
+
+        // Walk through the completed parts in the token order and collect the gaps
+        Token current = range.getStart();
+        for (TokenRange part : completed) {
+            if (part.getStart().compareTo(current) > 0) {
+                remaining.add(metadata.newTokenRange(current, part.getStart()));
+            }
+            if (endsAtRingEnd(part)) {
+                return remaining;
+            }
+            if (part.getEnd().compareTo(current) > 0) {
+                current = part.getEnd();
+            }
+        }
+
+        if (endsAtRingEnd(range) || current.compareTo(range.getEnd()) < 0) {
+            remaining.add(metadata.newTokenRange(current, range.getEnd()));
+        }
+        return remaining;
+    }
+
+    /**
+     * Whether the unwrapped range ends at the end of the ring, i.e. the end is
+     * the minimum token.
+     */
+    private static boolean endsAtRingEnd(TokenRange range) {
+        return range.getEnd().compareTo(range.getStart()) <= 0;
+    }
+
+    public synchronized int getCompletedCount() {
+        return completedRanges.size();
+    }
+
+    /**
+     * Record the subrange is complete. It should be called after the output of
+     * the subrange is written.
+     */
+    public synchronized void complete(TokenRange range) {
+        try {
+            write(DONE, range);
+            journal.flush();
+            completedRanges.add(range);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(String type, TokenRange range) throws IOException {
+        journal.write(type);
+        journal.write(' ');
+        journal.write(range.getStart().getValue().toString());
+        journal.write(' ');
+        journal.write(range.getEnd().getValue().toString());
+        journal.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+}
@@ -0,0 +1,279 @@
+package io.tenmax.cqlkit;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The thread-safe formatter of timestamps in the patterns of
+ * {@link SimpleDateFormat}. Consecutive timestamps in the same second are
+ * common in time-series tables, so each thread caches the formatted text of
+ * the last second and only formats the milliseconds.
+ *
+ * The pattern is translated into the pattern of {@link DateTimeFormatter} if
+ * every field is formatted the same. The other patterns, e.g. with the week
+ * year 'Y', the day number of week 'u' or the two-digit year 'yy', which is
+ * parsed in another century, are formatted by a {@link SimpleDateFormat} of
+ * each thread.
+ *
+ * The cache is used if the pattern is translated and has exactly one "SSS"
+ * field and no other sub-second field.
+ */
+public class DateFormatter {
+    private final String pattern;
+    private final ZoneId zone;
+    // Null if the pattern is not translated
+    private final DateTimeFormatter formatter;
+    // The parser without the zone, which would override the parsed offset
+    private final DateTimeFormatter parser;
+    private final ThreadLocal<SimpleDateFormat> legacyFormats;
+
+    // The formatters of the text before and after "SSS". Null if the cache is not used.
+    private final DateTimeFormatter prefixFormatter;
+    private final DateTimeFormatter suffixFormatter;
+    private final boolean hasMillis;
+
+    private final ThreadLocal<Cache> caches = ThreadLocal.withInitial(Cache::new);
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public DateFormatter(String pattern, ZoneId zone) {
+        this.pattern = pattern;
+        this.zone = zone;
+
+        String javaTimePattern = toJavaTimePattern(pattern);
+        if (javaTimePattern == null) {
+            // Validate the pattern once
+            new SimpleDateFormat(pattern);
+            formatter = null;
+            parser = null;
+            legacyFormats = ThreadLocal.withInitial(() -> {
+                SimpleDateFormat format = new SimpleDateFormat(pattern);
+                format.setTimeZone(TimeZone.getTimeZone(zone));
+                return format;
+            });
+            prefixFormatter = null;
+            suffixFormatter = null;
+            hasMillis = false;
+            return;
+        }
+        parser = DateTimeFormatter.ofPattern(javaTimePattern);
+        formatter = parser.withZone(zone);
+        legacyFormats = null;
+
+        int millisIndex = -1;
+        boolean cacheable = true;
+        boolean inQuote = false;
+        for (int i = 0; i < javaTimePattern.length(); i++) {
+            char c = javaTimePattern.charAt(i);
+            if (c == '\'') {
+                inQuote = !inQuote;
+            } else if (inQuote) {
+                continue;
+            } else if (c == 'S') {
+                if (millisIndex >= 0) {
+                    cacheable = false;
+                    break;
+                }
+                // The translated sub-second field is always "SSS"
+                millisIndex = i;
+                i += 2;
+            }
+        }
+
+        if (!cacheable) {
+            prefixFormatter = null;
+            suffixFormatter = null;
+            hasMillis = false;
+        } else if (millisIndex < 0) {
+            prefixFormatter = formatter;
+            suffixFormatter = null;
+            hasMillis = false;
+        } else {
+            prefixFormatter = DateTimeFormatter
+                    .ofPattern(javaTimePattern.substring(0, millisIndex))
+                    .withZone(zone);
+            suffixFormatter = DateTimeFormatter
+                    .ofPattern(javaTimePattern.substring(millisIndex + 3))
+                    .withZone(zone);
+            hasMillis = true;
+        }
+    }
+
+    /**
+     * Translate the pattern of {@link SimpleDateFormat} into the pattern of
+     * {@link DateTimeFormatter}.
+     *
+     * @return null if a field is not formatted the same, or the pattern is invalid
+     */
+    static String toJavaTimePattern(String pattern) {
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // The quoted text, and '' for a quote, are the same in both
+                int end = pattern.indexOf('\'', i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                result.append(pattern, i, end + 1);
+                i = end + 1;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int count = 1;
+                while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                    count++;
+                }
+                String field = toJavaTimeField(c, count);
+                if (field == null) {
+                    return null;
+                }
+                result.append(field);
+                i += count;
+            } else {
+                // The optional sections and the reserved characters of DateTimeFormatter
+                if ("[]{}#".indexOf(c) >= 0) {
+                    result.append('\'').append(c).append('\'');
+                } else {
+                    result.append(c);
+                }
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    private static String toJavaTimeField(char letter, int count) {
+        switch (letter) {
+            case 'G':
+            case 'a':
+            case 'Z':
+                // The text of any count is the same, e.g. "AD", "PM" and "+0800"
+                return String.valueOf(letter);
+            case 'y':
+                return count != 2 ? repeat(letter, count) : null;
+            case 'M':
+            case 'E':
+                // 4 or more letters are the full text, but 5 is narrow in DateTimeFormatter
+                return repeat(letter, Math.min(count, 4));
+            case 'd':
+            case 'H':
+            case 'k':
+            case 'K':
+            case 'h':
+            case 'm':
+            case 's':
+                return count <= 2 ? repeat(letter, count) : null;
+            case 'D':
+                return count <= 3 ? repeat(letter, count) : null;
+            case 'X':
+                // A single 'X' of DateTimeFormatter has the minutes too, e.g. "+0530"
+                return count == 2 || count == 3 ? repeat(letter, count) : null;
+            case 'S':
+                // The milliseconds of SimpleDateFormat are the fraction of 3 digits only
+                return count == 3 ? "SSS" : null;
+            default:
+                // Y, u, w, W, F, z, L and the invalid letters
+                return null;
+        }
+    }
+
+    private static String repeat(char letter, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, letter);
+        return new String(chars);
+    }
+
+    public DateFormatter withZone(ZoneId zone) {
+        return new DateFormatter(pattern, zone);
+    }
+
+    /**
+     * Parse the text in the pattern. A text without the offset is in the zone,
+     * and a pattern without the time of day is parsed as the start of the day.
+     *
+     * @throws DateTimeParseException if the text is not in the pattern
+     */
+    public Date parse(String text) {
+        if (formatter == null) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = legacyFormats.get().parse(text, position);
+            if (date == null || position.getIndex() != text.length()) {
+                int offset = position.getErrorIndex() >= 0 ? position.getErrorIndex() : position.getIndex();
+                throw new DateTimeParseException(
+                        "Text '" + text + "' could not be parsed at index " + offset, text, offset);
+            }
+            return date;
+        }
+
+        TemporalAccessor parsed = parser.parse(text);
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        if (date == null) {
+            throw new DateTimeParseException("Text '" + text + "' has no date", text, 0);
+        }
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        ZoneId parsedZone = parsed.query(TemporalQueries.zone());
+        return Date.from(ZonedDateTime.of(
+                date,
+                time != null ? time : LocalTime.MIDNIGHT,
+                parsedZone != null ? parsedZone : zone).toInstant());
+    }
+
+    public String format(Date date) {
+        if (formatter == null) {
+            return legacyFormats.get().format(date);
+        }
+
+        long millis = date.getTime();
+        if (prefixFormatter == null) {
+            return formatter.format(Instant.ofEpochMilli(millis));
+        }
+
+        long second = Math.floorDiv(millis, 1000);
+        Cache cache = caches.get();
+        if (cache.text == null || cache.second != second) {
+            Instant instant = Instant.ofEpochSecond(second);
+            String prefix = prefixFormatter.format(instant);
+            if (hasMillis) {
+                String text = prefix + "000" + suffixFormatter.format(instant);
+                cache.text = text;
+                cache.chars = text.toCharArray();
+                cache.millisOffset = prefix.length();
+            } else {
+                cache.text = prefix;
+            }
+            cache.second = second;
+        }
+
+        if (!hasMillis) {
+            return cache.text;
+        }
+
+        long ms = Math.floorMod(millis, 1000);
+        char[] chars = cache.chars;
+        int offset = cache.millisOffset;
+        chars[offset] = (char) ('0' + ms / 100);
+        chars[offset + 1] = (char) ('0' + ms / 10 % 10);
+        chars[offset + 2] = (char) ('0' + ms % 10);
+        return new String(chars);
+    }
+
+    private static class Cache {
+        long second;
+        String text;
+        char[] chars;
+        int millisOffset;
+    }
+}
@@ -0,0 +1,186 @@
+package io.tenmax.cqlkit;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of an export. The counters are updated by the workers, and a
+ * status line is printed to STDERR periodically. The ETA is estimated by the
+ * fraction of the token ring covered by the completed range queries, or by the
+ * completed queries if the coverage is unknown.
+ */
+public class ExportMetrics {
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder completedQueries = new LongAdder();
+    private final AtomicLong totalQueries = new AtomicLong();
+    private final DoubleAdder coveredFraction = new DoubleAdder();
+    private volatile double totalFraction = 0;
+
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LatencyHistogram pageLatency = new LatencyHistogram();
+
+    private ScheduledExecutorService reporter;
+    private long lastReportNanos = startNanos;
+    private long lastReportRows = 0;
+    private long lastReportBytes = 0;
+
+    public void addRow(int size) {
+        rows.increment();
+        bytes.add(size);
+    }
+
+    public void addPage(long latencyNanos) {
+        pages.increment();
+        pageLatency.recordNanos(latencyNanos);
+    }
+
+    public void addRetry() {
+        retries.increment();
+    }
+
+    public void addSplit() {
+        splits.increment();
+    }
+
+    public void addFailure() {
+        failures.increment();
+    }
+
+    public void addQueries(long queries) {
+        totalQueries.addAndGet(queries);
+    }
+
+    /**
+     * @param fraction The fraction of the token ring covered by the query, or
+     *                 a negative value if it is not a range query or unknown.
+     */
+    public void completeQuery(long latencyNanos, double fraction) {
+        completedQueries.increment();
+        queryLatency.recordNanos(latencyNanos);
+        if (fraction > 0) {
+            coveredFraction.add(fraction);
+        }
+    }
+
+    /**
+     * Add the fraction of the work done, e.g. of the input of a loader.
+     */
+    public void addCoverage(double fraction) {
+        coveredFraction.add(fraction);
+    }
+
+    /**
+     * The fraction of the token ring to export.
+     */
+    public void setTotalFraction(double fraction) {
+        totalFraction = fraction;
+    }
+
+    /**
+     * Print the status line every interval.
+     */
+    public void startReporter(long intervalSeconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cqlkit-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(
+                () -> System.err.println(statusLine()),
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    /**
+     * The rates are of the last interval. The ETA is of the whole export.
+     */
+    synchronized String statusLine() {
+        long now = System.nanoTime();
+        long currentRows = rows.sum();
+        long currentBytes = bytes.sum();
+        double interval = Math.max(now - lastReportNanos, 1) / 1e9;
+
+        String line = String.format(
+                "%d rows (%.0f rows/s), %.1f MB (%.2f MB/s), queries %d/%d, retries %d, ETA %s",
+                currentRows,
+                (currentRows - lastReportRows) / interval,
+                currentBytes / 1048576.0,
+                (currentBytes - lastReportBytes) / 1048576.0 / interval,
+                completedQueries.sum(),
+                totalQueries.get(),
+                retries.sum(),
+                eta(now));
+
+        lastReportNanos = now;
+        lastReportRows = currentRows;
+        lastReportBytes = currentBytes;
+        return line;
+    }
+
+    private String eta(long now) {
+        double progress;
+        if (totalFraction > 0) {
+            progress = coveredFraction.sum() / totalFraction;
+        } else if (totalQueries.get() > 0) {
+            progress = (double) completedQueries.sum() / totalQueries.get();
+        } else {
+            return "unknown";
+        }
+
+        if (progress <= 0) {
+            return "unknown";
+        }
+        long elapsed = now - startNanos;
+        long remaining = (long) (elapsed * (1 - Math.min(progress, 1)) / progress);
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(remaining);
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    public JsonObject toJson() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        JsonObject json = new JsonObject();
+        json.addProperty("elapsedSeconds", elapsed);
+        json.addProperty("rows", rows.sum());
+        json.addProperty("bytes", bytes.sum());
+        json.addProperty("pages", pages.sum());
+        json.addProperty("queries", completedQueries.sum());
+        json.addProperty("retries", retries.sum());
+        json.addProperty("splits", splits.sum());
+        json.addProperty("failures", failures.sum());
+        json.addProperty("rowsPerSecond", rows.sum() / elapsed);
+        json.addProperty("mbPerSecond", bytes.sum() / 1048576.0 / elapsed);
+        json.add("queryLatencyMillis", queryLatency.toJson());
+        json.add("pageLatencyMillis", pageLatency.toJson());
+        return json;
+    }
+
+    public void writeSummary(File file, JsonObject settings) throws IOException {
+        JsonObject json = toJson();
+        json.add("settings", settings);
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(json, writer);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.tenmax.cqlkit;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compress a block into an independent gzip member. The concatenated members
+ * are a valid gzip stream, the same as the output of pigz, so the blocks can be
+ * compressed by the worker threads in parallel.
+ */
+public class GzipBlock {
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b,   // magic
+            Deflater.DEFLATED,   // method
+            0,                   // flags
+            0, 0, 0, 0,          // mtime
+            0,                   // extra flags
+            (byte) 0xff          // OS unknown
+    };
+    private static final int TRAILER_SIZE = 8;
+
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<CRC32> crcs = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * Compress the bytes into a gzip member.
+     */
+    public static byte[] compress(byte[] data, int length) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        // The deflate output is larger than the input in the worst case
+        byte[] out = new byte[HEADER.length + length + length / 1000 + 64 + TRAILER_SIZE];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int pos = HEADER.length;
+        while (!deflater.finished()) {
+            if (pos == out.length - TRAILER_SIZE) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            pos += deflater.deflate(out, pos, out.length - TRAILER_SIZE - pos);
+        }
+
+        CRC32 crc = crcs.get();
+        crc.reset();
+        crc.update(data, 0, length);
+        pos = writeIntLE(out, pos, (int) crc.getValue());
+        pos = writeIntLE(out, pos, length);
+
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static int writeIntLE(byte[] out, int pos, int value) {
+        out[pos++] = (byte) value;
+        out[pos++] = (byte) (value >>> 8);
+        out[pos++] = (byte) (value >>> 16);
+        out[pos++] = (byte) (value >>> 24);
+        return pos;
+    }
+}
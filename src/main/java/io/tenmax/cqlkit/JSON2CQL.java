@@ -0,0 +1,142 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+/**
+ * Load the JSON lines or the JSON array of cql2json into a table.
+ *
+ * The records are the JSON lines, which are parsed by the workers. The
+ * elements of a JSON array are parsed by the reader instead.
+ */
+public class JSON2CQL extends AbstractLoader<Object> {
+
+    private String[] names;
+    private RowUtils.JsonValueParser[] parsers;
+    private TypeCodec<Object>[] codecs;
+
+    @Override
+    protected void printVersion() {
+        System.out.println("json2cql version " + Consts.VERSION);
+        System.exit(0);
+    }
+
+    @Override
+    protected void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        String cmdLineSyntax =
+                "json2cql [-c contactpoint] [-r CassandraPort] -t table [FILE...]";
+        String header = "FILE       The JSON files to load, and the files ending with .gz are \n" +
+                "           decompressed. If omitted, the JSON will be read from STDIN.\n\n";
+        formatter.printHelp(cmdLineSyntax, header, options, null);
+
+        System.exit(0);
+    }
+
+    @Override
+    protected Iterator<Object> records(BufferedReader in) throws IOException {
+        // Peek the first character for a JSON array
+        int c;
+        do {
+            in.mark(1);
+            c = in.read();
+        } while (c >= 0 && Character.isWhitespace(c));
+        in.reset();
+
+        if (c != '[') {
+            return in.lines()
+                    .filter(line -> !line.trim().isEmpty())
+                    .map(line -> (Object) line)
+                    .iterator();
+        }
+
+        JsonReader reader = new JsonReader(in);
+        reader.beginArray();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return reader.hasNext();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return JsonParser.parseReader(reader);
+            }
+        };
+    }
+
+    @Override
+    protected List<String> columns(TableMetadata table) {
+        return table.getColumns().stream()
+                .map(ColumnMetadata::getName)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void head(List<ColumnMetadata> columns) {
+        names = new String[columns.size()];
+        parsers = new RowUtils.JsonValueParser[columns.size()];
+        codecs = (TypeCodec<Object>[]) new TypeCodec<?>[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            DataType type = columns.get(i).getType();
+            names[i] = columns.get(i).getName();
+            parsers[i] = RowUtils.toJsonValueParser(type);
+            codecs[i] = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        }
+    }
+
+    /**
+     * A null or absent member, e.g. an empty collection of cql2json, is unset.
+     */
+    @Override
+    protected void bind(Object record, BoundStatement statement) {
+        JsonElement element = record instanceof String ?
+                JsonParser.parseString((String) record) :
+                (JsonElement) record;
+        if (!element.isJsonObject()) {
+            throw new IllegalArgumentException("Not a JSON object");
+        }
+
+        JsonObject json = element.getAsJsonObject();
+        for (int i = 0; i < names.length; i++) {
+            JsonElement value = json.get(names[i]);
+            if (value != null && !value.isJsonNull()) {
+                statement.set(i, parsers[i].parse(value), codecs[i]);
+            }
+        }
+    }
+
+    /**
+     * The size of an element of a JSON array is unknown, and counted as 0.
+     */
+    @Override
+    protected int size(Object record) {
+        return record instanceof String ? ((String) record).length() : 0;
+    }
+
+    public static void main(String[] args) {
+        JSON2CQL json2cql = new JSON2CQL();
+        json2cql.start(args);
+    }
+}
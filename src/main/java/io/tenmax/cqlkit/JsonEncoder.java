@@ -0,0 +1,248 @@
+package io.tenmax.cqlkit;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The streaming JSON encoder which writes the JSON tokens directly into an
+ * {@link OutputBuffer}. The output is the same as the default {@link com.google.gson.Gson},
+ * including the HTML-safe escaping and omitting the null members of objects.
+ */
+public class JsonEncoder {
+
+    /**
+     * How to encode the content of a JSON column.
+     */
+    public enum Mode {
+        /** Parse the content and encode it again. It is the same as Gson's JsonParser. */
+        PARSE,
+        /** Validate the content and copy it as it is. */
+        VALIDATE,
+        /** Copy the content as it is without validation. */
+        RAW
+    }
+
+    private static final byte[][] ESCAPES = new byte[128][];
+    private static final byte[] LS = "\\u2028".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PS = "\\u2029".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = String.format("\\u%04x", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        ESCAPES['"'] = "\\\"".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\\'] = "\\\\".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\t'] = "\\t".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\b'] = "\\b".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\n'] = "\\n".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\r'] = "\\r".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\f'] = "\\f".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['<'] = "\\u003c".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['>'] = "\\u003e".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['&'] = "\\u0026".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['='] = "\\u003d".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\''] = "\\u0027".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private JsonEncoder() {}
+
+    public static void writeString(OutputBuffer out, CharSequence value) {
+        out.write('"');
+        int start = 0;
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            byte[] escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+                if (escape == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                escape = LS;
+            } else if (c == '\u2029') {
+                escape = PS;
+            } else {
+                continue;
+            }
+
+            if (start < i) {
+                out.writeUtf8(value, start, i);
+            }
+            out.write(escape);
+            start = i + 1;
+        }
+        if (start < len) {
+            out.writeUtf8(value, start, len);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Write the name of an object member.
+     *
+     * @param first Whether it is the first member of the object
+     */
+    public static void writeName(OutputBuffer out, CharSequence name, boolean first) {
+        if (!first) {
+            out.write(',');
+        }
+        writeString(out, name);
+        out.write(':');
+    }
+
+    public static void writeBoolean(OutputBuffer out, boolean value) {
+        out.write(value ? TRUE : FALSE);
+    }
+
+    public static void writeNumber(OutputBuffer out, Number value) {
+        out.writeUtf8(value.toString());
+    }
+
+    public static void writeNull(OutputBuffer out) {
+        out.write(NULL);
+    }
+
+    /**
+     * Write the content of a JSON column.
+     *
+     * @return false if the content is a JSON null or empty and nothing is written.
+     */
+    public static boolean writeJson(OutputBuffer out, String json, Mode mode) {
+        switch (mode) {
+            case RAW:
+                if (json.trim().isEmpty()) {
+                    return false;
+                }
+                out.writeUtf8(json);
+                return true;
+            case VALIDATE:
+                if (!validate(json)) {
+                    return false;
+                }
+                out.writeUtf8(json);
+                return true;
+            case PARSE:
+            default:
+                return copy(out, json);
+        }
+    }
+
+    private static boolean validate(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // empty document
+                return false;
+            }
+            if (token == JsonToken.NULL) {
+                reader.nextNull();
+                return false;
+            }
+            reader.skipValue();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+            return true;
+        } catch (MalformedJsonException | NumberFormatException | EOFException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    private static boolean copy(OutputBuffer out, String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // empty document
+                return false;
+            }
+            if (token == JsonToken.NULL) {
+                reader.nextNull();
+                return false;
+            }
+            copyValue(reader, out);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+            return true;
+        } catch (MalformedJsonException | NumberFormatException | EOFException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    private static void copyValue(JsonReader reader, OutputBuffer out) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT: {
+                reader.beginObject();
+                out.write('{');
+                boolean first = true;
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        // Gson omits the null members
+                        reader.nextNull();
+                        continue;
+                    }
+                    writeName(out, name, first);
+                    copyValue(reader, out);
+                    first = false;
+                }
+                reader.endObject();
+                out.write('}');
+                break;
+            }
+            case BEGIN_ARRAY: {
+                reader.beginArray();
+                out.write('[');
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    copyValue(reader, out);
+                    first = false;
+                }
+                reader.endArray();
+                out.write(']');
+                break;
+            }
+            case STRING:
+                writeString(out, reader.nextString());
+                break;
+            case NUMBER:
+                out.writeUtf8(reader.nextString());
+                break;
+            case BOOLEAN:
+                writeBoolean(out, reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writeNull(out);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token: " + reader.peek());
+        }
+    }
+}
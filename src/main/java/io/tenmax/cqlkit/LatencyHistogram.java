@@ -0,0 +1,97 @@
+package io.tenmax.cqlkit;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in microseconds. Each power of two is
+ * divided into 8 buckets, so a percentile is accurate to 12.5%.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        micros = Math.max(micros, 0);
+        buckets.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * The upper bound of the bucket of the percentile in microseconds.
+     *
+     * @param q The quantile between 0 and 1
+     */
+    public long percentile(double q) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * The summary in milliseconds.
+     */
+    public JsonObject toJson() {
+        long total = count.sum();
+        JsonObject json = new JsonObject();
+        json.addProperty("count", total);
+        json.addProperty("mean", total > 0 ? (double) sum.sum() / total / 1000.0 : 0);
+        json.addProperty("p50", percentile(0.5) / 1000.0);
+        json.addProperty("p90", percentile(0.9) / 1000.0);
+        json.addProperty("p99", percentile(0.99) / 1000.0);
+        json.addProperty("max", max.get() / 1000.0);
+        return json;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exp - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+}
@@ -0,0 +1,163 @@
+package io.tenmax.cqlkit;
+
+/**
+ * The buffer to encode the records in UTF-8. The buffer is owned by a single
+ * thread. Once the buffer is full or the buffered records are older than the
+ * flush interval, the buffer is handed over to the {@link OutputWriter}.
+ */
+public class OutputBuffer {
+    private final OutputWriter writer;
+    private final byte[] separator;
+    private final byte[] terminator;
+    private final int chunkSize;
+    private final long flushIntervalNanos;
+
+    private byte[] data;
+    private int length = 0;
+    private int records = 0;
+    private int recordStart = 0;
+    private long firstRecordTime;
+
+    OutputBuffer(OutputWriter writer) {
+        this.writer = writer;
+        this.separator = writer.getSeparator();
+        this.terminator = writer.getTerminator();
+        this.chunkSize = writer.getChunkSize();
+        this.flushIntervalNanos = writer.getFlushIntervalNanos();
+        this.data = writer.acquireArray(chunkSize);
+    }
+
+    OutputWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * The number of the buffered records which are not handed over yet.
+     */
+    public int records() {
+        return records;
+    }
+
+    /**
+     * Append a record encoded from the string.
+     */
+    public void append(String record) {
+        startRecord();
+        writeUtf8(record);
+        endRecord();
+    }
+
+    public void startRecord() {
+        recordStart = length;
+        if (records == 0) {
+            firstRecordTime = System.nanoTime();
+        } else {
+            write(separator);
+        }
+    }
+
+    public void endRecord() {
+        write(terminator);
+        records++;
+
+        if (length >= chunkSize ||
+            System.nanoTime() - firstRecordTime >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Discard the bytes written since the last {@link #startRecord()}, e.g. the
+     * record failed to be encoded.
+     */
+    public void discardRecord() {
+        length = recordStart;
+    }
+
+    /**
+     * The number of the buffered bytes. It can be used as a mark to {@link #truncate(int)}
+     * within the current record.
+     */
+    public int size() {
+        return length;
+    }
+
+    public void truncate(int size) {
+        length = size;
+    }
+
+    /**
+     * Hand over the buffered records to the writer.
+     */
+    public void flush() {
+        if (length == 0) {
+            return;
+        }
+        writer.submit(data, length, records);
+        data = writer.acquireArray(chunkSize);
+        length = 0;
+        records = 0;
+    }
+
+    public void write(int b) {
+        ensureCapacity(1);
+        data[length++] = (byte) b;
+    }
+
+    public void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Encode the characters in UTF-8. An unpaired surrogate is encoded as '?',
+     * the same as {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    public void writeUtf8(CharSequence value) {
+        writeUtf8(value, 0, value.length());
+    }
+
+    public void writeUtf8(CharSequence value, int start, int end) {
+        // Each char takes at most 3 bytes. A surrogate pair takes 4 bytes.
+        ensureCapacity((end - start) * 3);
+
+        byte[] data = this.data;
+        int pos = length;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                data[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                data[pos++] = (byte) (0xc0 | (c >> 6));
+                data[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                char low;
+                if (Character.isHighSurrogate(c) && i + 1 < end &&
+                    Character.isLowSurrogate(low = value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, low);
+                    data[pos++] = (byte) (0xf0 | (cp >> 18));
+                    data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    data[pos++] = (byte) (0x80 | (cp & 0x3f));
+                    i++;
+                } else {
+                    data[pos++] = '?';
+                }
+            } else {
+                data[pos++] = (byte) (0xe0 | (c >> 12));
+                data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                data[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        length = pos;
+    }
+
+    private void ensureCapacity(int size) {
+        if (length + size > data.length) {
+            byte[] newData = new byte[Math.max(data.length * 2, length + size)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.TokenRange;
+import com.google.gson.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The output of the sharded export. A part is written by one query at a time,
+ * so the workers share no output stream and the rows of the queries of a part
+ * do not interleave. A part is rolled over to the next one once it exceeds the
+ * max bytes or the max records.
+ *
+ * Whenever a part is closed, <code>manifest.json</code> is rewritten to list
+ * the files, the row counts and the token ranges of the closed parts. The
+ * ranges of a part are the ranges of which all the rows are in the part. An
+ * open part is listed as <code>"open"</code> once a range of it is committed,
+ * with the rows and the bytes written up to the end of the range. If the
+ * directory already has a manifest, e.g. an export resumed by a checkpoint,
+ * the new parts are appended to it. An empty part is deleted.
+ *
+ * When the directory is opened, the parts left open by a killed export are
+ * truncated to their listed bytes and closed, so they keep the rows of the
+ * committed ranges only. The part files which are not listed at all are
+ * renamed to <code>*.orphan</code>, since none of their ranges were committed.
+ */
+public class OutputDirectory implements AutoCloseable {
+    public static final String MANIFEST = "manifest.json";
+    private static final String PREFIX = "part-";
+    private static final String ORPHAN = ".orphan";
+    private static final String OPEN = "open";
+
+    private final File dir;
+    private final String extension;
+    private final byte[] separator;
+    private final byte[] terminator;
+    private final boolean compress;
+    private final long maxBytes;
+    private final long maxRecords;
+    private final Consumer<OutputWriter> head;
+    private final Consumer<OutputWriter> tail;
+
+    private final AtomicInteger nextIndex;
+    private final Set<Part> openParts = new LinkedHashSet<>();
+    private final JsonArray manifest = new JsonArray();
+
+    /**
+     * @param extension The extension of the part files
+     * @param compress Whether to compress the parts in gzip
+     * @param maxBytes The max bytes of a part, or 0 if unlimited
+     * @param maxRecords The max records of a part, or 0 if unlimited
+     * @param head Write the head of a new part
+     * @param tail Write the tail of a part before it is closed
+     */
+    public OutputDirectory(
+            File dir,
+            String extension,
+            byte[] separator,
+            byte[] terminator,
+            boolean compress,
+            long maxBytes,
+            long maxRecords,
+            Consumer<OutputWriter> head,
+            Consumer<OutputWriter> tail) throws IOException
+    {
+        this.dir = dir;
+        this.extension = compress ? extension + ".gz" : extension;
+        this.separator = separator;
+        this.terminator = terminator;
+        this.compress = compress;
+        this.maxBytes = maxBytes;
+        this.maxRecords = maxRecords;
+        this.head = head;
+        this.tail = tail;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the output directory: " + dir);
+        }
+
+        File manifestFile = new File(dir, MANIFEST);
+        if (manifestFile.exists()) {
+            try (Reader reader = new InputStreamReader(
+                    new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+                JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+                manifest.addAll(root.getAsJsonArray("parts"));
+            }
+        }
+
+        Set<String> listed = new HashSet<>();
+        boolean reconciled = false;
+        for (int i = manifest.size() - 1; i >= 0; i--) {
+            JsonObject entry = manifest.get(i).getAsJsonObject();
+            if (entry.has(OPEN)) {
+                reconciled = true;
+                if (!closeOpenPart(entry)) {
+                    manifest.remove(i);
+                    continue;
+                }
+            }
+            listed.add(entry.get("file").getAsString());
+        }
+        if (reconciled) {
+            writeManifest();
+        }
+
+        // Continue the numbering of the existing parts
+        int index = 0;
+        String[] names = dir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.startsWith(PREFIX)) {
+                if (!listed.contains(name) && !name.endsWith(ORPHAN)) {
+                    File orphan = new File(dir, name + ORPHAN);
+                    System.err.println("Warning: " + name + " is not in the manifest, moved to " +
+                            orphan.getName());
+                    Files.move(new File(dir, name).toPath(), orphan.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+                try {
+                    int end = name.indexOf('.');
+                    String number = name.substring(PREFIX.length(), end < 0 ? name.length() : end);
+                    index = Math.max(index, Integer.parseInt(number) + 1);
+                } catch (NumberFormatException e) {
+                    // Not a part file
+                }
+            }
+        }
+        nextIndex = new AtomicInteger(index);
+    }
+
+    /**
+     * Truncate the part left open to the bytes of its last committed range, and
+     * write its tail.
+     *
+     * @return false if the part is empty and deleted
+     */
+    private boolean closeOpenPart(JsonObject entry) throws IOException {
+        File file = new File(dir, entry.get("file").getAsString());
+        if (entry.get("rows").getAsLong() == 0) {
+            file.delete();
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(entry.get("bytes").getAsLong());
+        }
+
+        OutputWriter writer = new OutputWriter(
+                new FileOutputStream(file, true), separator, terminator, compress);
+        tail.accept(writer);
+        writer.close();
+
+        entry.remove(OPEN);
+        entry.addProperty("bytes", file.length());
+        return true;
+    }
+
+    /**
+     * The token ranges listed in the manifest, i.e. the committed ranges.
+     */
+    public synchronized List<TokenRange> getRanges(Metadata metadata) {
+        List<TokenRange> ranges = new ArrayList<>();
+        for (JsonElement part : manifest) {
+            JsonArray rangeArray = part.getAsJsonObject().getAsJsonArray("ranges");
+            if (rangeArray == null) {
+                continue;
+            }
+            for (JsonElement pair : rangeArray) {
+                ranges.add(metadata.newTokenRange(
+                        metadata.newToken(pair.getAsJsonArray().get(0).getAsString()),
+                        metadata.newToken(pair.getAsJsonArray().get(1).getAsString())));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Open a new part. The part should be written by a single thread at a time.
+     */
+    public Part newPart() {
+        String name = String.format("%s%05d.%s", PREFIX, nextIndex.getAndIncrement(), extension);
+        File file = new File(dir, name);
+        try {
+            Part part = new Part(name, new OutputWriter(
+                    new FileOutputStream(file), separator, terminator, compress));
+            synchronized (this) {
+                openParts.add(part);
+            }
+            head.accept(part.writer);
+            return part;
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close all the open parts and write the manifest.
+     */
+    @Override
+    public void close() throws IOException {
+        List<Part> parts;
+        synchronized (this) {
+            parts = new ArrayList<>(openParts);
+        }
+        for (Part part : parts) {
+            part.close();
+        }
+        writeManifest();
+    }
+
+    private synchronized void writeManifest() throws IOException {
+        long rows = 0;
+        for (JsonElement part : manifest) {
+            rows += part.getAsJsonObject().get("rows").getAsLong();
+        }
+
+        JsonObject root = new JsonObject();
+        root.addProperty("rows", rows);
+        root.add("parts", manifest);
+
+        // Replace the manifest atomically, so a reader never sees a partial one
+        File manifestFile = new File(dir, MANIFEST);
+        File tmpFile = new File(dir, MANIFEST + ".tmp");
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(root, writer);
+        }
+        Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static JsonArray toJson(Set<TokenRange> ranges) {
+        JsonArray rangeArray = new JsonArray();
+        for (TokenRange range : ranges) {
+            JsonArray pair = new JsonArray();
+            pair.add(range.getStart().getValue().toString());
+            pair.add(range.getEnd().getValue().toString());
+            rangeArray.add(pair);
+        }
+        return rangeArray;
+    }
+
+    public class Part {
+        private final String name;
+        private final OutputWriter writer;
+        private final OutputBuffer buffer;
+        private final Set<TokenRange> ranges = new LinkedHashSet<>();
+        // The manifest entry, or null if not listed yet
+        private JsonObject entry;
+        private boolean closed = false;
+
+        private Part(String name, OutputWriter writer) {
+            this.name = name;
+            this.writer = writer;
+            this.buffer = writer.newBuffer();
+        }
+
+        public OutputBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Record the token range of which all the rows are written into the part.
+         */
+        public void addRange(TokenRange range) {
+            ranges.add(range);
+        }
+
+        /**
+         * Run the callback after the part is written so far and listed in the
+         * manifest with the rows and the ranges so far, e.g. to checkpoint a
+         * range only after its rows can be found by the manifest.
+         */
+        public void afterWritten(Runnable callback) {
+            long rows = writer.getSubmittedRecords();
+            JsonArray rangeArray = toJson(ranges);
+            writer.afterWritten(() -> {
+                synchronized (OutputDirectory.this) {
+                    if (entry == null) {
+                        entry = new JsonObject();
+                        entry.addProperty("file", name);
+                        entry.addProperty(OPEN, true);
+                        manifest.add(entry);
+                    }
+                    entry.addProperty("rows", rows);
+                    entry.addProperty("bytes", new File(dir, name).length());
+                    entry.add("ranges", rangeArray);
+                    try {
+                        writeManifest();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                callback.run();
+            });
+        }
+
+        /**
+         * Whether the part exceeds the max bytes or the max records.
+         */
+        public boolean isFull() {
+            return (maxBytes > 0 &&
+                    writer.getSubmittedBytes() + buffer.size() >= maxBytes) ||
+                   (maxRecords > 0 &&
+                    writer.getSubmittedRecords() + buffer.records() >= maxRecords);
+        }
+
+        /**
+         * Write the tail, wait for the part to be written and add it to the manifest.
+         */
+        public void close() {
+            synchronized (OutputDirectory.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                openParts.remove(this);
+            }
+
+            buffer.flush();
+            tail.accept(writer);
+            writer.close();
+
+            File file = new File(dir, name);
+            synchronized (OutputDirectory.this) {
+                if (writer.getSubmittedRecords() == 0) {
+                    file.delete();
+                    if (entry == null) {
+                        return;
+                    }
+                    manifest.remove(entry);
+                } else {
+                    if (entry == null) {
+                        entry = new JsonObject();
+                        entry.addProperty("file", name);
+                        manifest.add(entry);
+                    }
+                    entry.remove(OPEN);
+                    entry.addProperty("rows", writer.getSubmittedRecords());
+                    entry.addProperty("bytes", file.length());
+                    entry.add("ranges", toJson(ranges));
+                }
+                try {
+                    writeManifest();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
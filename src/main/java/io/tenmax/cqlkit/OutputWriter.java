@@ -0,0 +1,283 @@
+package io.tenmax.cqlkit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The single writer stage of the output. The query workers encode their rows
+ * into {@link OutputBuffer}s and hand over full chunks to this writer. A
+ * dedicated thread drains the chunks to the output stream, so the workers never
+ * contend on the output stream.
+ *
+ * If compression is enabled, each chunk is compressed into a gzip member by
+ * the worker before it is handed over, so the compression runs in parallel
+ * and the output is the concatenated gzip members.
+ *
+ * The chunk queue is bounded. If the output is slower than the queries, the
+ * workers are blocked when handing over a chunk.
+ */
+public class OutputWriter implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final Chunk EOF = new Chunk(null, 0, false, null);
+
+    private final OutputStream out;
+    private final byte[] separator;
+    private final byte[] rawSeparator;
+    private final byte[] terminator;
+    private final boolean compress;
+    private final int chunkSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Chunk> queue;
+    private final BlockingQueue<byte[]> freeArrays;
+    private final Thread thread;
+    private volatile IOException error;
+    private final AtomicLong submittedBytes = new AtomicLong();
+    private final AtomicLong submittedRecords = new AtomicLong();
+
+    // Only accessed by the writer thread
+    private boolean hasRecords = false;
+
+    /**
+     * @param out The output stream
+     * @param separator The bytes to write between two records
+     * @param terminator The bytes to write after each record
+     */
+    public OutputWriter(OutputStream out, byte[] separator, byte[] terminator) {
+        this(out, separator, terminator, false);
+    }
+
+    /**
+     * @param compress Whether to compress the output in gzip
+     */
+    public OutputWriter(OutputStream out, byte[] separator, byte[] terminator, boolean compress) {
+        this(out, separator, terminator, compress,
+                DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public OutputWriter(
+            OutputStream out,
+            byte[] separator,
+            byte[] terminator,
+            boolean compress,
+            int chunkSize,
+            int queueSize,
+            long flushIntervalMillis)
+    {
+        this.out = new BufferedOutputStream(out, chunkSize);
+        this.rawSeparator = separator;
+        // The separator is written between the chunks, so it is a member too
+        this.separator = compress && separator.length > 0 ?
+                GzipBlock.compress(separator, separator.length) :
+                separator;
+        this.terminator = terminator;
+        this.compress = compress;
+        this.chunkSize = chunkSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.freeArrays = new ArrayBlockingQueue<>(queueSize);
+
+        thread = new Thread(this::drain, "cqlkit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Create a new buffer to encode records. A buffer is not thread-safe, so
+     * each worker thread should own its buffer.
+     */
+    public OutputBuffer newBuffer() {
+        return new OutputBuffer(this);
+    }
+
+    /**
+     * Write the bytes which are not a record, e.g. the head and the tail of the
+     * output.
+     */
+    public void writeRaw(byte[] bytes) {
+        byte[] data = new byte[bytes.length];
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+        submit(data, data.length, 0);
+    }
+
+    /**
+     * Run the callback in the writer thread after all the chunks submitted
+     * before are written and flushed. The callback is not run if the output
+     * failed.
+     */
+    public void afterWritten(Runnable callback) {
+        checkError();
+        put(new Chunk(null, 0, false, callback));
+    }
+
+    /**
+     * The separator before compression
+     */
+    byte[] getSeparator() {
+        return rawSeparator;
+    }
+
+    byte[] getTerminator() {
+        return terminator;
+    }
+
+    long getFlushIntervalNanos() {
+        return flushIntervalNanos;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * The number of the bytes handed over to the writer after compression,
+     * excluding the separators between the chunks.
+     */
+    public long getSubmittedBytes() {
+        return submittedBytes.get();
+    }
+
+    /**
+     * The number of the records handed over to the writer.
+     */
+    public long getSubmittedRecords() {
+        return submittedRecords.get();
+    }
+
+    byte[] acquireArray(int minSize) {
+        byte[] array = freeArrays.poll();
+        if (array == null || array.length < minSize) {
+            array = new byte[Math.max(minSize, chunkSize)];
+        }
+        return array;
+    }
+
+    /**
+     * Hand over the chunk to the writer thread. It blocks if the queue is full.
+     */
+    void submit(byte[] data, int length, int records) {
+        checkError();
+        if (compress && length > 0) {
+            byte[] compressed = GzipBlock.compress(data, length);
+            if (data.length >= chunkSize) {
+                freeArrays.offer(data);
+            }
+            data = compressed;
+            length = compressed.length;
+        }
+        submittedBytes.addAndGet(length);
+        submittedRecords.addAndGet(records);
+        put(new Chunk(data, length, records > 0, null));
+    }
+
+    private void put(Chunk chunk) {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void drain() {
+        long lastFlush = System.nanoTime();
+        boolean dirty = false;
+
+        try {
+            while (true) {
+                Chunk chunk = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+
+                if (chunk == EOF) {
+                    break;
+                }
+
+                if (error != null) {
+                    // Discard the chunks to unblock the producers
+                    continue;
+                }
+
+                try {
+                    if (chunk != null && chunk.callback != null) {
+                        out.flush();
+                        lastFlush = System.nanoTime();
+                        dirty = false;
+                        chunk.callback.run();
+                    } else if (chunk != null) {
+                        if (chunk.records) {
+                            if (hasRecords) {
+                                out.write(separator);
+                            }
+                            hasRecords = true;
+                        }
+                        out.write(chunk.data, 0, chunk.length);
+                        if (chunk.data.length >= chunkSize) {
+                            freeArrays.offer(chunk.data);
+                        }
+                        dirty = true;
+                    }
+
+                    long now = System.nanoTime();
+                    if (dirty && now - lastFlush >= flushIntervalNanos) {
+                        out.flush();
+                        lastFlush = now;
+                        dirty = false;
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } catch (UncheckedIOException e) {
+                    error = e.getCause();
+                }
+            }
+
+            if (error == null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkError() {
+        if (error != null) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * Wait for all the submitted chunks to be written and flush the output.
+     */
+    @Override
+    public void close() {
+        try {
+            queue.put(EOF);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final int length;
+        final boolean records;
+        final Runnable callback;
+
+        Chunk(byte[] data, int length, boolean records, Runnable callback) {
+            this.data = data;
+            this.length = length;
+            this.records = records;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A unit of work to execute. A query of a token range binds the start and the
+ * end token to the prepared range statement, and also knows the replicas of the
+ * range and the host it is scheduled to.
+ */
+public class Query {
+    private final String cql;
+    private final TokenRange range;
+    private final Set<Host> replicas;
+    private final PreparedStatement prepared;
+    private final StatementCache statements;
+    private final int depth;
+    private Host host;
+
+    public Query(String cql) {
+        this(cql, null);
+    }
+
+    /**
+     * @param statements The cache to prepare the query by its shape, or null
+     *                   to execute the query as it is
+     */
+    public Query(String cql, StatementCache statements) {
+        this.cql = cql;
+        this.range = null;
+        this.replicas = Collections.emptySet();
+        this.prepared = null;
+        this.statements = statements;
+        this.depth = 0;
+    }
+
+    /**
+     * @param prepared The range statement with the bind markers of the start
+     *                 (exclusive) and the end (inclusive) token
+     */
+    public Query(
+            TokenRange range,
+            Set<Host> replicas,
+            PreparedStatement prepared)
+    {
+        this(range, replicas, prepared, 0);
+    }
+
+    private Query(
+            TokenRange range,
+            Set<Host> replicas,
+            PreparedStatement prepared,
+            int depth)
+    {
+        this.cql = prepared.getQueryString();
+        this.range = range;
+        this.replicas = replicas;
+        this.prepared = prepared;
+        this.statements = null;
+        this.depth = depth;
+    }
+
+    public String getCql() {
+        return cql;
+    }
+
+    /**
+     * The token range of the query, or null if it is not a range query.
+     */
+    public TokenRange getRange() {
+        return range;
+    }
+
+    /**
+     * The number of the splits from the original range.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public Set<Host> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * The replica the query is scheduled to, or null if not scheduled to a host.
+     */
+    public Host getHost() {
+        return host;
+    }
+
+    void setHost(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * The columns of the result resolved by the prepared statement, without
+     * reading the rows.
+     *
+     * @return The columns, or null if the query cannot be prepared.
+     */
+    public ColumnDefinitions getResultMetadata() {
+        if (prepared != null) {
+            return PreparedStatements.resultMetadata(prepared);
+        }
+        return statements != null ? statements.resultMetadata(cql) : null;
+    }
+
+    /**
+     * Split the range of the query into two halves, which are scheduled to
+     * the same host.
+     *
+     * @return The queries of the halves, or empty if the range cannot be split.
+     */
+    public List<Query> split() {
+        List<Query> queries = new ArrayList<>();
+        if (range == null) {
+            return queries;
+        }
+
+        List<TokenRange> halves;
+        try {
+            halves = range.splitEvenly(2);
+        } catch (RuntimeException e) {
+            // The partitioner does not support splitting
+            return queries;
+        }
+
+        for (TokenRange half : halves) {
+            for (TokenRange subrange : half.unwrap()) {
+                if (subrange.isEmpty()) {
+                    continue;
+                }
+                Query query = new Query(subrange, replicas, prepared, depth + 1);
+                query.setHost(host);
+                queries.add(query);
+            }
+        }
+        return queries.size() > 1 ? queries : new ArrayList<>();
+    }
+
+    /**
+     * Build the statement. If the replicas are known, the statement is routed to
+     * the scheduled host first and then the other replicas.
+     */
+    public Statement toStatement() {
+        Statement statement = prepared != null ?
+                prepared.bind()
+                        .setToken(0, range.getStart())
+                        .setToken(1, range.getEnd()) :
+                statements != null ?
+                        statements.toStatement(cql) :
+                        new SimpleStatement(cql);
+        statement.setIdempotent(true);
+        if (replicas.isEmpty()) {
+            return statement;
+        }
+
+        List<Host> hosts = new ArrayList<>(replicas.size());
+        if (host != null) {
+            hosts.add(host);
+        }
+        for (Host replica : replicas) {
+            if (!replica.equals(host)) {
+                hosts.add(replica);
+            }
+        }
+        return new RoutedStatement(statement, hosts);
+    }
+
+    @Override
+    public String toString() {
+        return range != null ? cql + " " + range : cql;
+    }
+}
@@ -0,0 +1,139 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Host;
+
+import java.util.*;
+
+/**
+ * Schedule the range queries across the hosts. Each query is assigned to the
+ * least loaded of its replicas, and the queries are handed out round-robin
+ * over the hosts, so the load is spread over the cluster instead of following
+ * the ring order.
+ *
+ * At most <code>maxPerHost</code> queries of a host are in flight. {@link #next()}
+ * blocks until a query of a host below the cap is available, and the caller
+ * should call {@link #release(Query)} after the query is complete. The queries
+ * of a split range can be put back by {@link #requeue(List)} before the
+ * original query is released.
+ */
+public class RangeScheduler implements Iterator<Query> {
+    private final Map<Host, Deque<Query>> queues = new LinkedHashMap<>();
+    private final Map<Host, Integer> inFlight = new HashMap<>();
+    private final Deque<Query> unassigned = new ArrayDeque<>();
+    private final List<Host> hosts;
+    private final int maxPerHost;
+    private int cursor = 0;
+    private int remaining;
+    private int totalInFlight = 0;
+
+    /**
+     * @param queries The queries in the ring order
+     * @param maxPerHost The max in-flight queries per host
+     */
+    public RangeScheduler(List<Query> queries, int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        this.remaining = queries.size();
+
+        Map<Host, Integer> assigned = new HashMap<>();
+        for (Query query : queries) {
+            Host host = null;
+            for (Host replica : query.getReplicas()) {
+                if (host == null ||
+                    assigned.getOrDefault(replica, 0) < assigned.getOrDefault(host, 0)) {
+                    host = replica;
+                }
+            }
+
+            if (host == null) {
+                unassigned.add(query);
+            } else {
+                query.setHost(host);
+                assigned.merge(host, 1, Integer::sum);
+                queues.computeIfAbsent(host, key -> new ArrayDeque<>()).add(query);
+            }
+        }
+
+        hosts = new ArrayList<>(queues.keySet());
+    }
+
+    /**
+     * If all the queries are dispatched, it blocks until the in-flight queries
+     * are complete, since they may requeue queries.
+     */
+    @Override
+    public synchronized boolean hasNext() {
+        while (remaining == 0 && totalInFlight > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        return remaining > 0;
+    }
+
+    /**
+     * Put the queries back to the front of the queues of their hosts.
+     */
+    public synchronized void requeue(List<Query> queries) {
+        for (int i = queries.size() - 1; i >= 0; i--) {
+            Query query = queries.get(i);
+            Host host = query.getHost();
+            if (host == null) {
+                unassigned.addFirst(query);
+            } else {
+                if (!queues.containsKey(host)) {
+                    queues.put(host, new ArrayDeque<>());
+                    hosts.add(host);
+                }
+                queues.get(host).addFirst(query);
+            }
+            remaining++;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized Query next() {
+        if (remaining == 0) {
+            throw new NoSuchElementException();
+        }
+
+        while (true) {
+            if (!unassigned.isEmpty()) {
+                remaining--;
+                totalInFlight++;
+                return unassigned.poll();
+            }
+
+            for (int i = 0; i < hosts.size(); i++) {
+                Host host = hosts.get((cursor + i) % hosts.size());
+                Deque<Query> queue = queues.get(host);
+                if (!queue.isEmpty() && inFlight.getOrDefault(host, 0) < maxPerHost) {
+                    cursor = (cursor + i + 1) % hosts.size();
+                    inFlight.merge(host, 1, Integer::sum);
+                    remaining--;
+                    totalInFlight++;
+                    return queue.poll();
+                }
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public synchronized void release(Query query) {
+        Host host = query.getHost();
+        if (host != null) {
+            inFlight.merge(host, -1, Integer::sum);
+        }
+        totalInFlight--;
+        notifyAll();
+    }
+}
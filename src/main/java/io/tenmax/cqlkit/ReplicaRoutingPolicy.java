@@ -0,0 +1,90 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.ChainableLoadBalancingPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The load balancing policy which sends a {@link RoutedStatement} to its hosts
+ * first. The range queries have no partition key to route by, so the driver's
+ * token-aware policy cannot find the replicas of them. Other statements are
+ * delegated to the child policy.
+ */
+public class ReplicaRoutingPolicy implements ChainableLoadBalancingPolicy {
+    private final LoadBalancingPolicy childPolicy;
+
+    public ReplicaRoutingPolicy(LoadBalancingPolicy childPolicy) {
+        this.childPolicy = childPolicy;
+    }
+
+    @Override
+    public LoadBalancingPolicy getChildPolicy() {
+        return childPolicy;
+    }
+
+    @Override
+    public void init(Cluster cluster, Collection<Host> hosts) {
+        childPolicy.init(cluster, hosts);
+    }
+
+    @Override
+    public HostDistance distance(Host host) {
+        return childPolicy.distance(host);
+    }
+
+    @Override
+    public Iterator<Host> newQueryPlan(String loggedKeyspace, Statement statement) {
+        Iterator<Host> childPlan = childPolicy.newQueryPlan(loggedKeyspace, statement);
+        if (!(statement instanceof RoutedStatement)) {
+            return childPlan;
+        }
+
+        List<Host> hosts = ((RoutedStatement) statement).getHosts();
+        List<Host> plan = new ArrayList<>();
+        for (Host host : hosts) {
+            if (host.isUp() && childPolicy.distance(host) != HostDistance.IGNORED) {
+                plan.add(host);
+            }
+        }
+        while (childPlan.hasNext()) {
+            Host host = childPlan.next();
+            if (!plan.contains(host)) {
+                plan.add(host);
+            }
+        }
+        return plan.iterator();
+    }
+
+    @Override
+    public void onAdd(Host host) {
+        childPolicy.onAdd(host);
+    }
+
+    @Override
+    public void onUp(Host host) {
+        childPolicy.onUp(host);
+    }
+
+    @Override
+    public void onDown(Host host) {
+        childPolicy.onDown(host);
+    }
+
+    @Override
+    public void onRemove(Host host) {
+        childPolicy.onRemove(host);
+    }
+
+    @Override
+    public void close() {
+        childPolicy.close();
+    }
+}
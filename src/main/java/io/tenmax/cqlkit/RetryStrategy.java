@@ -0,0 +1,99 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.exceptions.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decide how to handle a failed query. The driver exceptions are classified
+ * into the timeouts, the other retryable errors and the fatal errors.
+ *
+ * A range query which timed out before any row is output is split into
+ * smaller ranges, since a range too dense to read in time would time out
+ * again. The other retryable errors are retried with exponential backoff and
+ * jitter.
+ */
+public class RetryStrategy {
+    public enum Decision {
+        RETRY,
+        SPLIT,
+        FAIL
+    }
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+    public static final int MAX_SPLIT_DEPTH = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryStrategy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param attempts The number of the retries so far
+     * @param hasOutput Whether some rows of the query are already output
+     */
+    public Decision decide(Throwable e, Query query, int attempts, boolean hasOutput) {
+        if (isRetryable(e) &&
+            isTimeout(e) &&
+            !hasOutput &&
+            query.getRange() != null &&
+            query.getDepth() < MAX_SPLIT_DEPTH) {
+            return Decision.SPLIT;
+        }
+
+        return decide(e, attempts);
+    }
+
+    /**
+     * Decide for a statement which cannot be split, e.g. a write.
+     */
+    public Decision decide(Throwable e, int attempts) {
+        return isRetryable(e) && attempts < maxRetries ? Decision.RETRY : Decision.FAIL;
+    }
+
+    /**
+     * The delay before the next retry. It is the exponential backoff with
+     * equal jitter, i.e. a random delay between the half and the full backoff.
+     */
+    public long delay(int attempts) {
+        long backoff = baseDelayMillis << Math.min(attempts, 20);
+        backoff = Math.min(backoff, maxDelayMillis);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    public static boolean isTimeout(Throwable e) {
+        if (e instanceof NoHostAvailableException) {
+            // Timed out if all the hosts timed out
+            NoHostAvailableException noHost = (NoHostAvailableException) e;
+            return !noHost.getErrors().isEmpty() &&
+                   noHost.getErrors().values().stream().allMatch(RetryStrategy::isTimeout);
+        }
+
+        return e instanceof ReadTimeoutException ||
+               e instanceof ReadFailureException ||
+               e instanceof OperationTimedOutException;
+    }
+
+    public static boolean isRetryable(Throwable e) {
+        if (e instanceof QueryValidationException ||
+            e instanceof AuthenticationException ||
+            e instanceof UnsupportedFeatureException ||
+            e instanceof CodecNotFoundException ||
+            e instanceof InvalidTypeException) {
+            return false;
+        }
+
+        return e instanceof DriverException;
+    }
+}
@@ -0,0 +1,25 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StatementWrapper;
+
+import java.util.List;
+
+/**
+ * The statement which should be sent to the given hosts first.
+ *
+ * @see ReplicaRoutingPolicy
+ */
+public class RoutedStatement extends StatementWrapper {
+    private final List<Host> hosts;
+
+    public RoutedStatement(Statement wrapped, List<Host> hosts) {
+        super(wrapped);
+        this.hosts = hosts;
+    }
+
+    public List<Host> getHosts() {
+        return hosts;
+    }
+}
@@ -0,0 +1,439 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * A predicate on the rows, evaluated before the rows are mapped. The
+ * expression is parsed once, and compiled against the columns of the result
+ * into a tree of predicates which read the columns by their indexes and
+ * types. A comparison with a null column is false.
+ *
+ * <pre>
+ * expr       := and ('or' and)*
+ * and        := not ('and' not)*
+ * not        := 'not' not | '(' expr ')' | comparison
+ * comparison := column ('=' | '!=' | '&lt;&gt;' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=') literal
+ *             | column 'in' '(' literal (',' literal)* ')'
+ *             | column 'like' string
+ *             | column 'is' ['not'] 'null'
+ * literal    := string | number | 'true' | 'false'
+ * </pre>
+ *
+ * The strings are quoted by single quotes, and the literals are parsed as the
+ * values of the columns, e.g. a timestamp is a string in the date format.
+ */
+public class RowFilter {
+    private final Node root;
+
+    private RowFilter(Node root) {
+        this.root = root;
+    }
+
+    public static RowFilter parse(String expression) {
+        Parser parser = new Parser(expression);
+        Node root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("Unexpected " + parser.peek().text);
+        }
+        return new RowFilter(root);
+    }
+
+    /**
+     * Compile the expression against the columns of the result.
+     */
+    public Predicate<Row> compile(ColumnDefinitions columns) {
+        return root.compile(columns);
+    }
+
+    private interface Node {
+        Predicate<Row> compile(ColumnDefinitions columns);
+    }
+
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(int comparison) {
+            switch (this) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+    }
+
+    private static class Literal {
+        final String text;
+        final boolean isString;
+
+        Literal(String text, boolean isString) {
+            this.text = text;
+            this.isString = isString;
+        }
+
+        Object parse(DataType type, String column) {
+            try {
+                return RowUtils.toStringParser(type).parse(text);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid %s literal of column %s: %s", type, column, text));
+            }
+        }
+    }
+
+    private static int indexOf(ColumnDefinitions columns, String column) {
+        int index = columns.getIndexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column in filter: " + column);
+        }
+        return index;
+    }
+
+    private static Predicate<Row> compare(ColumnDefinitions columns, String column, Operator op, Literal literal) {
+        int i = indexOf(columns, column);
+        DataType type = columns.getType(i);
+        Object value = literal.parse(type, column);
+
+        ToLongFunction<Row> longAccessor = null;
+        ToDoubleFunction<Row> doubleAccessor = null;
+        switch (type.getName()) {
+            case TINYINT:
+                longAccessor = row -> row.getByte(i);
+                break;
+            case SMALLINT:
+                longAccessor = row -> row.getShort(i);
+                break;
+            case INT:
+                longAccessor = row -> row.getInt(i);
+                break;
+            case BIGINT:
+            case COUNTER:
+                longAccessor = row -> row.getLong(i);
+                break;
+            case FLOAT:
+                doubleAccessor = row -> row.getFloat(i);
+                break;
+            case DOUBLE:
+                doubleAccessor = row -> row.getDouble(i);
+                break;
+            default:
+        }
+
+        if (longAccessor != null) {
+            ToLongFunction<Row> accessor = longAccessor;
+            long expected = ((Number) value).longValue();
+            return row -> !row.isNull(i) && op.test(Long.compare(accessor.applyAsLong(row), expected));
+        }
+        if (doubleAccessor != null) {
+            ToDoubleFunction<Row> accessor = doubleAccessor;
+            double expected = ((Number) value).doubleValue();
+            return row -> !row.isNull(i) && op.test(Double.compare(accessor.applyAsDouble(row), expected));
+        }
+
+        TypeCodec<Object> codec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        if (value instanceof Comparable) {
+            return row -> {
+                @SuppressWarnings("unchecked")
+                Comparable<Object> actual = (Comparable<Object>) row.get(i, codec);
+                return actual != null && op.test(actual.compareTo(value));
+            };
+        }
+        if (op == Operator.EQ || op == Operator.NE) {
+            return row -> {
+                Object actual = row.get(i, codec);
+                return actual != null && value.equals(actual) == (op == Operator.EQ);
+            };
+        }
+        throw new IllegalArgumentException(String.format(
+                "The column %s of %s cannot be compared", column, type));
+    }
+
+    private static class Parser {
+        private final String expression;
+        private final List<Token> tokens = new ArrayList<>();
+        private int position = 0;
+
+        Parser(String expression) {
+            this.expression = expression;
+            tokenize();
+        }
+
+        Node parseOr() {
+            Node left = parseAnd();
+            while (acceptKeyword("or")) {
+                Node l = left;
+                Node r = parseAnd();
+                left = columns -> l.compile(columns).or(r.compile(columns));
+            }
+            return left;
+        }
+
+        Node parseAnd() {
+            Node left = parseNot();
+            while (acceptKeyword("and")) {
+                Node l = left;
+                Node r = parseNot();
+                left = columns -> l.compile(columns).and(r.compile(columns));
+            }
+            return left;
+        }
+
+        Node parseNot() {
+            if (acceptKeyword("not")) {
+                Node node = parseNot();
+                return columns -> node.compile(columns).negate();
+            }
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parseComparison();
+        }
+
+        Node parseComparison() {
+            Token token = next();
+            if (token.type != TokenType.IDENTIFIER) {
+                throw error("Expected a column but " + token.text, token);
+            }
+            String column = token.text;
+
+            if (acceptKeyword("is")) {
+                boolean not = acceptKeyword("not");
+                expectKeyword("null");
+                return columns -> {
+                    int i = indexOf(columns, column);
+                    return not ? row -> !row.isNull(i) : row -> row.isNull(i);
+                };
+            }
+
+            if (acceptKeyword("in")) {
+                expect("(");
+                List<Literal> literals = new ArrayList<>();
+                do {
+                    literals.add(parseLiteral());
+                } while (accept(","));
+                expect(")");
+                // The literals are compared like '=', e.g. an int literal of a bigint column
+                return columns -> literals.stream()
+                        .map(literal -> compare(columns, column, Operator.EQ, literal))
+                        .reduce(Predicate::or)
+                        .get();
+            }
+
+            if (acceptKeyword("like")) {
+                Literal literal = parseLiteral();
+                if (!literal.isString) {
+                    throw error("Expected a string pattern but " + literal.text);
+                }
+                Pattern pattern = likePattern(literal.text);
+                return columns -> {
+                    int i = indexOf(columns, column);
+                    DataType.Name type = columns.getType(i).getName();
+                    if (type != DataType.Name.TEXT && type != DataType.Name.VARCHAR && type != DataType.Name.ASCII) {
+                        throw new IllegalArgumentException("LIKE on the non-text column: " + column);
+                    }
+                    return row -> {
+                        String value = row.getString(i);
+                        return value != null && pattern.matcher(value).matches();
+                    };
+                };
+            }
+
+            Token op = next();
+            Operator operator;
+            switch (op.text) {
+                case "=": operator = Operator.EQ; break;
+                case "!=":
+                case "<>": operator = Operator.NE; break;
+                case "<": operator = Operator.LT; break;
+                case "<=": operator = Operator.LE; break;
+                case ">": operator = Operator.GT; break;
+                case ">=": operator = Operator.GE; break;
+                default:
+                    throw error("Expected an operator but " + op.text, op);
+            }
+            Literal literal = parseLiteral();
+            return columns -> compare(columns, column, operator, literal);
+        }
+
+        Literal parseLiteral() {
+            Token token = next();
+            switch (token.type) {
+                case STRING:
+                    return new Literal(token.text, true);
+                case NUMBER:
+                    return new Literal(token.text, false);
+                case IDENTIFIER:
+                    if (token.text.equalsIgnoreCase("true") || token.text.equalsIgnoreCase("false")) {
+                        return new Literal(token.text.toLowerCase(), false);
+                    }
+                    throw error("Expected a literal but " + token.text, token);
+                default:
+                    throw error("Expected a literal but " + token.text, token);
+            }
+        }
+
+        /**
+         * The SQL pattern of LIKE, i.e. '%' is any string and '_' is any character.
+         */
+        private static Pattern likePattern(String like) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : like.toCharArray()) {
+                if (c == '%' || c == '_') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        Token peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        Token next() {
+            Token token = peek();
+            if (token == null) {
+                throw error("Unexpected end of filter");
+            }
+            position++;
+            return token;
+        }
+
+        boolean accept(String symbol) {
+            Token token = peek();
+            if (token != null && token.type == TokenType.SYMBOL && token.text.equals(symbol)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        boolean acceptKeyword(String keyword) {
+            Token token = peek();
+            if (token != null && token.type == TokenType.IDENTIFIER &&
+                !token.quoted && token.text.equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String symbol) {
+            if (!accept(symbol)) {
+                throw error("Expected " + symbol);
+            }
+        }
+
+        void expectKeyword(String keyword) {
+            if (!acceptKeyword(keyword)) {
+                throw error("Expected " + keyword);
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return error(message, peek());
+        }
+
+        IllegalArgumentException error(String message, Token token) {
+            int offset = token != null ? token.offset : expression.length();
+            return new IllegalArgumentException(String.format(
+                    "%s at %d of filter: %s", message, offset, expression));
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                int start = i;
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    // A doubled quote is an escaped quote
+                    StringBuilder text = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= expression.length()) {
+                            throw new IllegalArgumentException(String.format(
+                                    "Unterminated quote at %d of filter: %s", start, expression));
+                        }
+                        char ch = expression.charAt(i++);
+                        if (ch == c) {
+                            if (i < expression.length() && expression.charAt(i) == c) {
+                                i++;
+                            } else {
+                                break;
+                            }
+                        }
+                        text.append(ch);
+                    }
+                    tokens.add(c == '\'' ?
+                            new Token(TokenType.STRING, text.toString(), start, false) :
+                            new Token(TokenType.IDENTIFIER, "\"" + text.toString().replace("\"", "\"\"") + "\"", start, true));
+                } else if (Character.isLetter(c) || c == '_') {
+                    while (i < expression.length() &&
+                           (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_')) {
+                        i++;
+                    }
+                    tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(start, i), start, false));
+                } else if (Character.isDigit(c) || c == '-' || c == '.') {
+                    i++;
+                    while (i < expression.length() &&
+                           (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.' ||
+                            expression.charAt(i) == '-' || expression.charAt(i) == ':' ||
+                            ((expression.charAt(i) == '+') &&
+                             (expression.charAt(i - 1) == 'e' || expression.charAt(i - 1) == 'E')))) {
+                        i++;
+                    }
+                    tokens.add(new Token(TokenType.NUMBER, expression.substring(start, i), start, false));
+                } else if (expression.startsWith("<=", i) || expression.startsWith(">=", i) ||
+                           expression.startsWith("!=", i) || expression.startsWith("<>", i)) {
+                    i += 2;
+                    tokens.add(new Token(TokenType.SYMBOL, expression.substring(start, i), start, false));
+                } else if ("=<>(),".indexOf(c) >= 0) {
+                    i++;
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), start, false));
+                } else {
+                    throw new IllegalArgumentException(String.format(
+                            "Unexpected %c at %d of filter: %s", c, start, expression));
+                }
+            }
+        }
+    }
+
+    private enum TokenType {
+        IDENTIFIER, STRING, NUMBER, SYMBOL
+    }
+
+    private static class Token {
+        final TokenType type;
+        final String text;
+        final int offset;
+        final boolean quoted;
+
+        Token(TokenType type, String text, int offset, boolean quoted) {
+            this.type = type;
+            this.text = text;
+            this.offset = offset;
+            this.quoted = quoted;
+        }
+    }
+}
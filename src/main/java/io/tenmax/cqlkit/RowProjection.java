@@ -0,0 +1,73 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Select and rename the columns of the rows before they are mapped. The list
+ * is the columns separated by comma, and a column can be renamed by
+ * <code>column AS name</code>.
+ */
+public class RowProjection {
+    private final List<String> columns = new ArrayList<>();
+    // The new names, or null if not renamed
+    private final List<String> names = new ArrayList<>();
+    private int[] indexes;
+    private ColumnDefinitions projected;
+    private ProtocolVersion protocolVersion;
+
+    public static RowProjection parse(String list) {
+        RowProjection projection = new RowProjection();
+        for (String item : list.split(",")) {
+            String[] words = item.trim().split("\\s+");
+            if (words.length == 1 && !words[0].isEmpty()) {
+                projection.columns.add(words[0]);
+                projection.names.add(null);
+            } else if (words.length == 3 && words[1].equalsIgnoreCase("as")) {
+                projection.columns.add(words[0]);
+                projection.names.add(unquote(words[2]));
+            } else {
+                throw new IllegalArgumentException("Invalid column: " + item.trim());
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Resolve the columns by the columns of the result.
+     *
+     * @return The projected columns
+     */
+    public ColumnDefinitions compile(ColumnDefinitions definitions, Cluster cluster) {
+        indexes = new int[columns.size()];
+        String[] projectedNames = new String[columns.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = definitions.getIndexOf(columns.get(i));
+            if (indexes[i] < 0) {
+                throw new IllegalArgumentException("Unknown column: " + columns.get(i));
+            }
+            projectedNames[i] = names.get(i) != null ? names.get(i) : definitions.getName(indexes[i]);
+        }
+
+        protocolVersion = cluster.getConfiguration().getProtocolOptions().getProtocolVersion();
+        projected = ProjectedRows.columns(
+                definitions,
+                indexes,
+                projectedNames,
+                cluster.getConfiguration().getCodecRegistry());
+        return projected;
+    }
+
+    public Row apply(Row row) {
+        return ProjectedRows.row(projected, row, indexes, protocolVersion);
+    }
+
+    private static String unquote(String name) {
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            return name.substring(1, name.length() - 1).replace("\"\"", "\"");
+        }
+        return name;
+    }
+}
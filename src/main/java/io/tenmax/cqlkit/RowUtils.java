@@ -4,132 +4,421 @@ import com.datastax.driver.core.*;
 import com.google.gson.*;
 
 import java.net.InetAddress;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Function;
 
 public class RowUtils {
-    private static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSSZ");
+    private static volatile DateFormatter dateFormatter =
+            new DateFormatter("yyyy-MM-dd' 'HH:mm:ss.SSSZ", ZoneOffset.UTC);
 
-    static {
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /**
+     * Convert a cell of the row to string.
+     */
+    @FunctionalInterface
+    public interface StringConverter {
+        String convert(Row row, int i);
     }
 
-    public static String toString(
-        DataType type,
-        Object value)
+    /**
+     * Write a cell of the row as a member of the JSON object.
+     */
+    @FunctionalInterface
+    public interface JsonConverter {
+        /**
+         * @param first Whether it is the first member of the object
+         * @return false if the cell is omitted, i.e. the cell is null or an empty collection.
+         */
+        boolean write(OutputBuffer out, Row row, int i, boolean first);
+    }
+
+    /**
+     * Parse a text into the Java value of a column, i.e. the inverse of
+     * {@link StringConverter}.
+     */
+    @FunctionalInterface
+    public interface StringParser {
+        Object parse(String text);
+    }
+
+    /**
+     * Parse a JSON value into the Java value of a column, i.e. the inverse of
+     * {@link JsonConverter}.
+     */
+    @FunctionalInterface
+    public interface JsonValueParser {
+        Object parse(JsonElement json);
+    }
+
+    /**
+     * Write a non-null value as JSON.
+     */
+    @FunctionalInterface
+    private interface JsonValueWriter {
+        /**
+         * @return false if nothing is written, i.e. the text of a JSON column is a JSON null.
+         */
+        boolean write(OutputBuffer out, Object value);
+    }
+
+    /**
+     * Build the converters of the columns once, so the types are not looked
+     * up per cell. The text, inet and timestamp values are written as plain
+     * text, and the other values as CQL literals.
+     */
+    public static StringConverter[] toStringConverters(ColumnDefinitions columnDefinitions) {
+        return columnDefinitions.asList()
+                .stream()
+                .map(definition -> toStringConverter(definition.getType()))
+                .toArray(StringConverter[]::new);
+    }
+
+    /**
+     * Build the converters which format the columns as CQL literals.
+     */
+    public static StringConverter[] toCqlConverters(ColumnDefinitions columnDefinitions) {
+        return columnDefinitions.asList()
+                .stream()
+                .map(definition -> {
+                    TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(definition.getType());
+                    return (StringConverter) (row, i) -> typeCodec.format(row.get(i, typeCodec));
+                })
+                .toArray(StringConverter[]::new);
+    }
+
+    /**
+     * Build the JSON converters of the columns once, so the types are not
+     * looked up per cell.
+     *
+     * @param jsonColumns The columns which contain JSON string
+     * @param jsonMode How to encode the JSON columns
+     */
+    public static JsonConverter[] toJsonConverters(
+            ColumnDefinitions columnDefinitions,
+            Set<String> jsonColumns,
+            JsonEncoder.Mode jsonMode)
     {
-    	TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
-    	if (value == null) {
-    	    return null;
-        }
+        return columnDefinitions.asList()
+                .stream()
+                .map(definition -> toJsonConverter(
+                        definition.getName(),
+                        definition.getType(),
+                        jsonColumns.contains(definition.getName()) ? jsonMode : null))
+                .toArray(JsonConverter[]::new);
+    }
 
-    	if(typeCodec.getJavaType().getRawType().getName().equals(String.class.getName())) {
-            return (String) value;
-        } else if(typeCodec.getJavaType().getRawType().getName().equals(InetAddress.class.getName())) {
-            return ((InetAddress) value).getHostAddress();
-        } else if(type.getName() == DataType.Name.TIMESTAMP) {
-            return toDateString((Date) value);
+    private static StringConverter toStringConverter(DataType type) {
+        TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        Class<?> javaType = typeCodec.getJavaType().getRawType();
+
+        if (javaType == String.class) {
+            return (row, i) -> (String) row.get(i, typeCodec);
+        } else if (javaType == InetAddress.class) {
+            return (row, i) -> {
+                InetAddress value = (InetAddress) row.get(i, typeCodec);
+                return value != null ? value.getHostAddress() : null;
+            };
+        } else if (type.getName() == DataType.Name.TIMESTAMP) {
+            return (row, i) -> toDateString((Date) row.get(i, typeCodec));
         } else {
-            return typeCodec.format(value);
+            return (row, i) -> {
+                Object value = row.get(i, typeCodec);
+                return value != null ? typeCodec.format(value) : null;
+            };
         }
     }
 
-    public static JsonElement toJson(
+    private static JsonConverter toJsonConverter(
+            String name,
             DataType type,
-            Object value,
-            boolean jsonColumn)
+            JsonEncoder.Mode jsonMode)
+    {
+        TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        JsonValueWriter valueWriter = toJsonValueWriter(type, jsonMode);
+        DataType.Name typeName = type.getName();
+        boolean isCollection = typeName == DataType.Name.LIST || typeName == DataType.Name.SET;
+        boolean isMap = typeName == DataType.Name.MAP;
+
+        return (out, row, i, first) -> {
+            Object value = row.get(i, typeCodec);
+            if (value == null ||
+                (isCollection && ((Collection<?>) value).isEmpty()) ||
+                (isMap && ((Map<?, ?>) value).isEmpty())) {
+                return false;
+            }
+
+            int mark = out.size();
+            JsonEncoder.writeName(out, name, first);
+            if (!valueWriter.write(out, value)) {
+                out.truncate(mark);
+                return false;
+            }
+            return true;
+        };
+    }
+
+    private static JsonValueWriter toJsonValueWriter(
+            DataType type,
+            JsonEncoder.Mode jsonMode)
     {
-        if(value == null) {
-            return null;
-        }
         TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
         switch(type.getName()) {
             case BLOB:
             case UUID:
             case INET:
+            case TIME:
             case TIMEUUID:
-                return new JsonPrimitive(typeCodec.format(value));
+                return (out, value) -> {
+                    JsonEncoder.writeString(out, typeCodec.format(value));
+                    return true;
+                };
             case BOOLEAN:
-                return new JsonPrimitive((Boolean)value);
+                return (out, value) -> {
+                    JsonEncoder.writeBoolean(out, (Boolean) value);
+                    return true;
+                };
             case BIGINT:
             case COUNTER:
             case DECIMAL:
             case DOUBLE:
             case FLOAT:
             case INT:
+            case SMALLINT:
+            case TINYINT:
             case VARINT:
-                return new JsonPrimitive((Number)value);
+                return (out, value) -> {
+                    JsonEncoder.writeNumber(out, (Number) value);
+                    return true;
+                };
             case ASCII:
             case TEXT:
             case VARCHAR:
-                if(jsonColumn) {
-                    return new JsonParser().parse((String)value);
+                if(jsonMode != null) {
+                    return (out, value) -> JsonEncoder.writeJson(out, (String) value, jsonMode);
                 } else {
-                    return new JsonPrimitive((String) value);
+                    return (out, value) -> {
+                        JsonEncoder.writeString(out, (String) value);
+                        return true;
+                    };
                 }
             case TIMESTAMP:
-                return new JsonPrimitive(toDateString((Date)value));
-                //return new JsonPrimitive(((Date)value).getTime());
+                return (out, value) -> {
+                    JsonEncoder.writeString(out, toDateString((Date) value));
+                    return true;
+                };
             case DATE:
-                return new JsonPrimitive(((LocalDate)value).toString());
+                return (out, value) -> {
+                    JsonEncoder.writeString(out, value.toString());
+                    return true;
+                };
             case LIST:
             case SET:
-                return collectionToJson(type, (Collection)value, jsonColumn);
+                return toCollectionJsonWriter(type, jsonMode);
             case MAP:
-                return mapToJson(type, (Map)value, jsonColumn);
+                return toMapJsonWriter(type, jsonMode);
             case TUPLE:
             case UDT:
             case CUSTOM:
             default:
-                throw new UnsupportedOperationException(
-                        "The type is not supported now: " + type.getName());
+                return (out, value) -> {
+                    throw new UnsupportedOperationException(
+                            "The type is not supported now: " + type.getName());
+                };
         }
     }
 
-    public static void setDateFormat(String pattern) {
-        dateFormat = new SimpleDateFormat(pattern);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    private static JsonValueWriter toMapJsonWriter(
+            DataType type,
+            JsonEncoder.Mode jsonMode)
+    {
+        Function<Object, String> keyWriter = toJsonKeyWriter(type.getTypeArguments().get(0));
+        JsonValueWriter valueWriter = toJsonValueWriter(type.getTypeArguments().get(1), jsonMode);
+        return (out, value) -> {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                int mark = out.size();
+                JsonEncoder.writeName(out, keyWriter.apply(entry.getKey()), first);
+                if (valueWriter.write(out, entry.getValue())) {
+                    first = false;
+                } else {
+                    out.truncate(mark);
+                }
+            }
+            out.write('}');
+            return true;
+        };
     }
 
-    public static void setTimeZone(String timeZone) {
-        dateFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
+    /**
+     * The keys of a map are written as the JSON values of the keys, and the
+     * numbers and booleans as their JSON text.
+     */
+    private static Function<Object, String> toJsonKeyWriter(DataType type) {
+        TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        switch (type.getName()) {
+            case BLOB:
+            case UUID:
+            case INET:
+            case TIME:
+            case TIMEUUID:
+                return typeCodec::format;
+            case TIMESTAMP:
+                return value -> toDateString((Date) value);
+            default:
+                return Object::toString;
+        }
     }
 
-    private static JsonElement mapToJson(
-        DataType type,
-        Map map,
-        boolean jsonColumn)
+    private static JsonValueWriter toCollectionJsonWriter(
+            DataType type,
+            JsonEncoder.Mode jsonMode)
     {
-        DataType[] dataTypes = type.getTypeArguments().toArray(new DataType[]{});
-        JsonObject root = new JsonObject();
-        map.forEach((key, value) -> {
-            if(value != null) {
-                root.add(key.toString(), toJson(dataTypes[1], value, jsonColumn));
+        JsonValueWriter elementWriter = toJsonValueWriter(type.getTypeArguments().get(0), jsonMode);
+        return (out, value) -> {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (element == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                if (!elementWriter.write(out, element)) {
+                    JsonEncoder.writeNull(out);
+                }
+                first = false;
             }
-        });
-        return root;
+            out.write(']');
+            return true;
+        };
     }
 
-    private static JsonElement collectionToJson(
-            DataType type,
-            Collection collection,
-            boolean jsonColumn)
-    {
-        DataType[] dataTypes = type.getTypeArguments().toArray(new DataType[]{});
-        JsonArray array = new JsonArray();
-        collection.forEach((value) -> {
-            if(value != null) {
-                array.add(toJson(dataTypes[0], value, jsonColumn));
+    /**
+     * Build the parser of the text of {@link #toStringConverters(ColumnDefinitions)}.
+     * The other values are parsed as CQL literals, e.g. the collections.
+     */
+    public static StringParser toStringParser(DataType type) {
+        TypeCodec<Object> typeCodec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+        Class<?> javaType = typeCodec.getJavaType().getRawType();
+
+        if (javaType == String.class) {
+            return text -> text;
+        }
+
+        switch (type.getName()) {
+            case TIMESTAMP:
+                return RowUtils::parseDate;
+            case DATE:
+            case TIME:
+            case INET:
+                // The literals of these types are quoted, e.g. the inet of cql2json
+                return text -> typeCodec.parse(text.startsWith("'") ? text : "'" + text + "'");
+            default:
+                return typeCodec::parse;
+        }
+    }
+
+    /**
+     * Build the parser of the JSON of {@link #toJsonConverters(ColumnDefinitions, Set, JsonEncoder.Mode)}.
+     * A JSON value of a text column is kept as its JSON text, e.g. a JSON column.
+     */
+    public static JsonValueParser toJsonValueParser(DataType type) {
+        switch (type.getName()) {
+            case BOOLEAN:
+                return JsonElement::getAsBoolean;
+            case BIGINT:
+            case COUNTER:
+                return JsonElement::getAsLong;
+            case INT:
+                return JsonElement::getAsInt;
+            case SMALLINT:
+                return JsonElement::getAsShort;
+            case TINYINT:
+                return JsonElement::getAsByte;
+            case DOUBLE:
+                return JsonElement::getAsDouble;
+            case FLOAT:
+                return JsonElement::getAsFloat;
+            case DECIMAL:
+                return JsonElement::getAsBigDecimal;
+            case VARINT:
+                return JsonElement::getAsBigInteger;
+            case ASCII:
+            case TEXT:
+            case VARCHAR:
+                return json -> json.isJsonPrimitive() ? json.getAsString() : json.toString();
+            case LIST:
+            case SET: {
+                JsonValueParser elementParser = toJsonValueParser(type.getTypeArguments().get(0));
+                boolean isSet = type.getName() == DataType.Name.SET;
+                return json -> {
+                    Collection<Object> collection = isSet ? new LinkedHashSet<>() : new ArrayList<>();
+                    for (JsonElement element : json.getAsJsonArray()) {
+                        collection.add(element.isJsonNull() ? null : elementParser.parse(element));
+                    }
+                    return collection;
+                };
+            }
+            case MAP: {
+                // The keys are the JSON strings of the values, see toJsonKeyWriter
+                JsonValueParser keyParser = toJsonValueParser(type.getTypeArguments().get(0));
+                JsonValueParser valueParser = toJsonValueParser(type.getTypeArguments().get(1));
+                return json -> {
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject().entrySet()) {
+                        if (!entry.getValue().isJsonNull()) {
+                            map.put(keyParser.parse(new JsonPrimitive(entry.getKey())),
+                                    valueParser.parse(entry.getValue()));
+                        }
+                    }
+                    return map;
+                };
             }
-        });
-        return array;
+            case TUPLE:
+            case UDT:
+            case CUSTOM:
+                return json -> {
+                    throw new UnsupportedOperationException(
+                            "The type is not supported now: " + type.getName());
+                };
+            default: {
+                // The values written as JSON strings, e.g. uuid, blob and timestamp
+                StringParser parser = toStringParser(type);
+                return json -> parser.parse(json.getAsString());
+            }
+        }
     }
 
-    private static String toDateString(Date date) {
-        /* protect against multi threaded access of static dateFormat */
-        synchronized (RowUtils.class) {
-            return date != null ? dateFormat.format(date) : null;
+    /**
+     * Parse a timestamp in the date format, in milliseconds since the epoch,
+     * or in the formats of CQL literals.
+     */
+    private static Date parseDate(String text) {
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+            return new Date(Long.parseLong(text));
+        }
+        try {
+            return dateFormatter.parse(text);
+        } catch (DateTimeParseException e) {
+            return TypeCodec.timestamp().parse(text.startsWith("'") ? text : "'" + text + "'");
         }
     }
+
+    public static void setDateFormat(String pattern) {
+        dateFormatter = new DateFormatter(pattern, ZoneOffset.UTC);
+    }
+
+    public static void setTimeZone(String timeZone) {
+        dateFormatter = dateFormatter.withZone(TimeZone.getTimeZone(timeZone).toZoneId());
+    }
+
+    private static String toDateString(Date date) {
+        return date != null ? dateFormatter.format(date) : null;
+    }
 }
@@ -0,0 +1,255 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+import com.datastax.driver.core.utils.Bytes;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.*;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Write the Cassandra rows into Parquet. The schema and the writers of the
+ * columns are built once from the column definitions.
+ *
+ * A list or a set is mapped to the LIST group and a map is mapped to the MAP
+ * group. The types without a Parquet counterpart, e.g. varint, decimal, UDT
+ * and tuple, are written as their CQL literals.
+ */
+public class RowWriteSupport extends WriteSupport<Row> {
+    private final MessageType schema;
+    private final String[] names;
+    private final TypeCodec<Object>[] codecs;
+    private final ValueWriter[] writers;
+    private RecordConsumer consumer;
+
+    /**
+     * Write a non-null value into the current field.
+     */
+    @FunctionalInterface
+    private interface ValueWriter {
+        void write(RecordConsumer consumer, Object value);
+    }
+
+    private static class Field {
+        final Type type;
+        final ValueWriter writer;
+
+        Field(Type type, ValueWriter writer) {
+            this.type = type;
+            this.writer = writer;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public RowWriteSupport(ColumnDefinitions columnDefinitions) {
+        List<ColumnDefinitions.Definition> definitions = columnDefinitions.asList();
+        names = new String[definitions.size()];
+        codecs = (TypeCodec<Object>[]) new TypeCodec<?>[definitions.size()];
+        writers = new ValueWriter[definitions.size()];
+
+        List<Type> fields = new ArrayList<>();
+        for (int i = 0; i < definitions.size(); i++) {
+            ColumnDefinitions.Definition definition = definitions.get(i);
+            Field field = toField(definition.getType(), Type.Repetition.OPTIONAL, definition.getName());
+            names[i] = definition.getName();
+            codecs[i] = CodecRegistry.DEFAULT_INSTANCE.codecFor(definition.getType());
+            writers[i] = field.writer;
+            fields.add(field.type);
+        }
+        schema = new MessageType("row", fields);
+    }
+
+    public MessageType getSchema() {
+        return schema;
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(schema, new HashMap<>());
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        this.consumer = recordConsumer;
+    }
+
+    @Override
+    public void write(Row row) {
+        consumer.startMessage();
+        for (int i = 0; i < writers.length; i++) {
+            if (row.isNull(i)) {
+                continue;
+            }
+            consumer.startField(names[i], i);
+            writers[i].write(consumer, row.get(i, codecs[i]));
+            consumer.endField(names[i], i);
+        }
+        consumer.endMessage();
+    }
+
+    private static Field toField(DataType type, Type.Repetition repetition, String name) {
+        switch (type.getName()) {
+            case ASCII:
+            case TEXT:
+            case VARCHAR:
+                return string(repetition, name,
+                        (consumer, value) -> consumer.addBinary(Binary.fromString((String) value)));
+            case INET:
+                return string(repetition, name,
+                        (consumer, value) -> consumer.addBinary(
+                                Binary.fromString(((InetAddress) value).getHostAddress())));
+            case UUID:
+            case TIMEUUID:
+                return string(repetition, name,
+                        (consumer, value) -> consumer.addBinary(Binary.fromString(value.toString())));
+            case BLOB:
+                return primitive(PrimitiveType.PrimitiveTypeName.BINARY, null, repetition, name,
+                        (consumer, value) -> consumer.addBinary(
+                                Binary.fromConstantByteArray(Bytes.getArray((ByteBuffer) value))));
+            case BOOLEAN:
+                return primitive(PrimitiveType.PrimitiveTypeName.BOOLEAN, null, repetition, name,
+                        (consumer, value) -> consumer.addBoolean((Boolean) value));
+            case TINYINT:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT32, OriginalType.INT_8, repetition, name,
+                        (consumer, value) -> consumer.addInteger((Byte) value));
+            case SMALLINT:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT32, OriginalType.INT_16, repetition, name,
+                        (consumer, value) -> consumer.addInteger((Short) value));
+            case INT:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT32, null, repetition, name,
+                        (consumer, value) -> consumer.addInteger((Integer) value));
+            case BIGINT:
+            case COUNTER:
+            case TIME:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT64, null, repetition, name,
+                        (consumer, value) -> consumer.addLong((Long) value));
+            case FLOAT:
+                return primitive(PrimitiveType.PrimitiveTypeName.FLOAT, null, repetition, name,
+                        (consumer, value) -> consumer.addFloat((Float) value));
+            case DOUBLE:
+                return primitive(PrimitiveType.PrimitiveTypeName.DOUBLE, null, repetition, name,
+                        (consumer, value) -> consumer.addDouble((Double) value));
+            case TIMESTAMP:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT64, OriginalType.TIMESTAMP_MILLIS,
+                        repetition, name,
+                        (consumer, value) -> consumer.addLong(((Date) value).getTime()));
+            case DATE:
+                return primitive(PrimitiveType.PrimitiveTypeName.INT32, OriginalType.DATE, repetition, name,
+                        (consumer, value) -> consumer.addInteger(((LocalDate) value).getDaysSinceEpoch()));
+            case LIST:
+            case SET:
+                return toListField(type, repetition, name);
+            case MAP:
+                return toMapField(type, repetition, name);
+            default:
+                // varint, decimal, duration, UDT, tuple and custom types
+                TypeCodec<Object> codec = CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+                return string(repetition, name,
+                        (consumer, value) -> consumer.addBinary(Binary.fromString(codec.format(value))));
+        }
+    }
+
+    /**
+     * <pre>
+     * group name (LIST) {
+     *   repeated group list {
+     *     optional element;
+     *   }
+     * }
+     * </pre>
+     */
+    private static Field toListField(DataType type, Type.Repetition repetition, String name) {
+        Field element = toField(type.getTypeArguments().get(0), Type.Repetition.OPTIONAL, "element");
+        Type group = Types.buildGroup(repetition)
+                .as(OriginalType.LIST)
+                .repeatedGroup()
+                    .addField(element.type)
+                    .named("list")
+                .named(name);
+
+        return new Field(group, (consumer, value) -> {
+            Collection<?> collection = (Collection<?>) value;
+            consumer.startGroup();
+            if (!collection.isEmpty()) {
+                consumer.startField("list", 0);
+                for (Object item : collection) {
+                    consumer.startGroup();
+                    if (item != null) {
+                        consumer.startField("element", 0);
+                        element.writer.write(consumer, item);
+                        consumer.endField("element", 0);
+                    }
+                    consumer.endGroup();
+                }
+                consumer.endField("list", 0);
+            }
+            consumer.endGroup();
+        });
+    }
+
+    /**
+     * <pre>
+     * group name (MAP) {
+     *   repeated group key_value {
+     *     required key;
+     *     optional value;
+     *   }
+     * }
+     * </pre>
+     */
+    private static Field toMapField(DataType type, Type.Repetition repetition, String name) {
+        Field key = toField(type.getTypeArguments().get(0), Type.Repetition.REQUIRED, "key");
+        Field val = toField(type.getTypeArguments().get(1), Type.Repetition.OPTIONAL, "value");
+        Type group = Types.buildGroup(repetition)
+                .as(OriginalType.MAP)
+                .repeatedGroup()
+                    .addField(key.type)
+                    .addField(val.type)
+                    .named("key_value")
+                .named(name);
+
+        return new Field(group, (consumer, value) -> {
+            Map<?, ?> map = (Map<?, ?>) value;
+            consumer.startGroup();
+            if (!map.isEmpty()) {
+                consumer.startField("key_value", 0);
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    consumer.startGroup();
+                    consumer.startField("key", 0);
+                    key.writer.write(consumer, entry.getKey());
+                    consumer.endField("key", 0);
+                    if (entry.getValue() != null) {
+                        consumer.startField("value", 1);
+                        val.writer.write(consumer, entry.getValue());
+                        consumer.endField("value", 1);
+                    }
+                    consumer.endGroup();
+                }
+                consumer.endField("key_value", 0);
+            }
+            consumer.endGroup();
+        });
+    }
+
+    private static Field string(Type.Repetition repetition, String name, ValueWriter writer) {
+        return primitive(PrimitiveType.PrimitiveTypeName.BINARY, OriginalType.UTF8, repetition, name, writer);
+    }
+
+    private static Field primitive(
+            PrimitiveType.PrimitiveTypeName typeName,
+            OriginalType originalType,
+            Type.Repetition repetition,
+            String name,
+            ValueWriter writer)
+    {
+        Type type = Types.primitive(typeName, repetition)
+                .as(originalType)
+                .named(name);
+        return new Field(type, writer);
+    }
+}
@@ -1,6 +1,7 @@
 package io.tenmax.cqlkit;
 
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.policies.Policies;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.configuration.HierarchicalINIConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
@@ -36,6 +37,10 @@ public class SessionFactory implements AutoCloseable{
 
         builder.withPort(cassandraPort);
 
+        // Route the range queries to their replicas
+        builder.withLoadBalancingPolicy(
+                new ReplicaRoutingPolicy(Policies.defaultLoadBalancingPolicy()));
+
         if(commandLine.hasOption("c")) {
             builder.addContactPoints(commandLine.getOptionValue("c").split(","));
         } else {
@@ -0,0 +1,180 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepare the queries of FILE and STDIN by their shapes. The literals of a
+ * query are replaced by bind markers, so the queries which differ in the
+ * literals only, e.g. the lookups of the keys, share a prepared statement and
+ * are executed as bound statements.
+ *
+ * A query which cannot be prepared or bound is executed as it is.
+ */
+public class StatementCache {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final Pattern UUID = Pattern.compile(
+            "\\p{XDigit}{8}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{4}-\\p{XDigit}{12}");
+    private static final Pattern BLOB = Pattern.compile("0[xX]\\p{XDigit}*");
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+    // The characters after which a '-' is the sign of a number
+    private static final String OPERATORS = "=<>(,[{:+-*/%";
+
+    private final Session session;
+    private final CodecRegistry codecRegistry;
+    // The failed shapes are cached as empty
+    private final Map<String, Optional<PreparedStatement>> cache =
+            new LinkedHashMap<String, Optional<PreparedStatement>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Optional<PreparedStatement>> eldest) {
+                    return size() > DEFAULT_CAPACITY;
+                }
+            };
+
+    public StatementCache(Session session) {
+        this.session = session;
+        this.codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+    }
+
+    /**
+     * Bind the literals of the query to the prepared statement of its shape.
+     */
+    public Statement toStatement(String cql) {
+        List<String> literals = new ArrayList<>();
+        String shape = shape(cql, literals);
+        PreparedStatement prepared = shape != null ? prepare(shape) : null;
+        if (prepared == null || prepared.getVariables().size() != literals.size()) {
+            return new SimpleStatement(cql);
+        }
+
+        try {
+            BoundStatement statement = prepared.bind();
+            for (int i = 0; i < literals.size(); i++) {
+                TypeCodec<Object> codec = codecRegistry.codecFor(prepared.getVariables().getType(i));
+                statement.set(i, codec.parse(literals.get(i)), codec);
+            }
+            return statement;
+        } catch (RuntimeException e) {
+            // e.g. the literal is not of the type of the column
+            return new SimpleStatement(cql);
+        }
+    }
+
+    /**
+     * The columns of the result of the query, without reading the rows.
+     *
+     * @return The columns, or null if the query cannot be prepared.
+     */
+    public ColumnDefinitions resultMetadata(String cql) {
+        String shape = shape(cql, new ArrayList<>());
+        PreparedStatement prepared = prepare(shape != null ? shape : cql);
+        return prepared != null ? PreparedStatements.resultMetadata(prepared) : null;
+    }
+
+    private synchronized PreparedStatement prepare(String shape) {
+        Optional<PreparedStatement> prepared = cache.get(shape);
+        if (prepared == null) {
+            try {
+                prepared = Optional.of(session.prepare(shape));
+            } catch (RuntimeException e) {
+                prepared = Optional.empty();
+            }
+            cache.put(shape, prepared);
+        }
+        return prepared.orElse(null);
+    }
+
+    /**
+     * Replace the string, number, uuid and blob literals by bind markers. The
+     * identifiers, the quoted identifiers and the keywords, e.g. true and
+     * false, are kept.
+     *
+     * @param literals The replaced literals in CQL
+     * @return The shape, or null if the query is malformed.
+     */
+    static String shape(String cql, List<String> literals) {
+        StringBuilder shape = new StringBuilder(cql.length());
+        Matcher uuid = UUID.matcher(cql);
+        Matcher blob = BLOB.matcher(cql);
+        Matcher number = NUMBER.matcher(cql);
+        char previous = 0;
+        int i = 0;
+        while (i < cql.length()) {
+            char c = cql.charAt(i);
+            int end = i + 1;
+
+            if (c == '\'' || c == '"') {
+                // A doubled quote is an escaped quote
+                while (end < cql.length()) {
+                    if (cql.charAt(end) == c) {
+                        if (end + 1 < cql.length() && cql.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                if (end >= cql.length()) {
+                    return null;
+                }
+                end++;
+                if (c == '\'') {
+                    literals.add(cql.substring(i, end));
+                    shape.append('?');
+                } else {
+                    shape.append(cql, i, end);
+                }
+            } else if (c == '$' && cql.startsWith("$$", i)) {
+                end = cql.indexOf("$$", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                end += 2;
+                shape.append(cql, i, end);
+            } else if (Character.isLetterOrDigit(c) || c == '_' ||
+                       (c == '-' && OPERATORS.indexOf(previous) >= 0)) {
+                int word = wordEnd(cql, i);
+                if (uuid.region(i, cql.length()).lookingAt() && wordEnd(cql, uuid.end()) == uuid.end()) {
+                    end = uuid.end();
+                } else if (blob.region(i, cql.length()).lookingAt() && blob.end() == word) {
+                    end = blob.end();
+                } else if (number.region(i, cql.length()).lookingAt() && wordEnd(cql, number.end()) == number.end()) {
+                    end = number.end();
+                } else {
+                    // An identifier, a keyword or a duration
+                    end = Math.max(word, i + 1);
+                    shape.append(cql, i, end);
+                    previous = cql.charAt(end - 1);
+                    i = end;
+                    continue;
+                }
+                literals.add(cql.substring(i, end));
+                shape.append('?');
+            } else {
+                shape.append(c);
+            }
+
+            if (!Character.isWhitespace(c)) {
+                previous = shape.charAt(shape.length() - 1);
+            }
+            i = end;
+        }
+        return shape.toString();
+    }
+
+    /**
+     * The end of the identifier, the keyword or the number from the index.
+     */
+    private static int wordEnd(String cql, int index) {
+        int end = index;
+        while (end < cql.length() &&
+               (Character.isLetterOrDigit(cql.charAt(end)) || cql.charAt(end) == '_')) {
+            end++;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,51 @@
+package io.tenmax.cqlkit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token bucket shared by the workers to limit a rate, e.g. rows per second.
+ * The bucket holds at most one second of tokens, so the burst after an idle
+ * period is bounded.
+ *
+ * A caller may take more tokens than available. The bucket goes into debt and
+ * the caller waits until the debt is paid, so the following callers wait too
+ * and the average rate is kept.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond The tokens added per second
+     */
+    public TokenBucket(double ratePerSecond) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = ratePerSecond;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take the tokens, and wait if the bucket is in debt.
+     */
+    public void acquire(long permits) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+
+            tokens -= permits;
+            waitNanos = tokens < 0 ? (long) (-tokens / tokensPerNano) : 0;
+        }
+
+        long deadline = System.nanoTime() + waitNanos;
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+            waitNanos = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.*;
+
+/**
+ * Split the token ring of a table into the subranges to query. Without any
+ * option, each vnode range is a subrange. The ranges can be further split into
+ * a total number of splits or by the target rows per split, weighted by the
+ * partition estimates in <code>system.size_estimates</code>.
+ */
+public class TokenRangeSplitter {
+    private static final BigInteger MURMUR3_RING = BigInteger.ONE.shiftLeft(64);
+    private static final BigInteger RANDOM_RING = BigInteger.ONE.shiftLeft(127);
+
+    private final Session session;
+    private final Metadata metadata;
+    private final String keyspace;
+    private final String table;
+
+    public TokenRangeSplitter(
+            Session session,
+            Metadata metadata,
+            String keyspace,
+            String table)
+    {
+        this.session = session;
+        this.metadata = metadata;
+        this.keyspace = keyspace;
+        this.table = table;
+    }
+
+    /**
+     * @param splits The total number of splits, or 0 if not specified.
+     * @param targetRowsPerSplit The estimated rows per split, or 0 if not specified.
+     * @return The unwrapped subranges in the ring order.
+     */
+    public List<TokenRange> split(int splits, long targetRowsPerSplit) {
+        List<TokenRange> ranges = new ArrayList<>(metadata.getTokenRanges());
+        Collections.sort(ranges);
+
+        double[] fractions = fractions(ranges);
+        double[] rows = null;
+        if (fractions != null && (splits > 0 || targetRowsPerSplit > 0)) {
+            rows = estimateRows(ranges, fractions);
+        }
+
+        // The weights to distribute the total splits
+        double[] weights = rows != null ? rows : fractions;
+        double totalWeight = 0;
+        if (weights != null) {
+            for (double weight : weights) {
+                totalWeight += weight;
+            }
+        }
+
+        List<TokenRange> subranges = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            int n = 1;
+            if (targetRowsPerSplit > 0 && rows != null) {
+                n = (int) Math.ceil(rows[i] / targetRowsPerSplit);
+            } else if (splits > 0) {
+                n = totalWeight > 0 ?
+                        (int) Math.round(splits * weights[i] / totalWeight) :
+                        (int) Math.round((double) splits / ranges.size());
+            }
+
+            for (TokenRange range : splitEvenly(ranges.get(i), Math.max(n, 1))) {
+                subranges.addAll(range.unwrap());
+            }
+        }
+
+        return subranges;
+    }
+
+    private List<TokenRange> splitEvenly(TokenRange range, int n) {
+        if (n <= 1) {
+            return Collections.singletonList(range);
+        }
+
+        try {
+            return range.splitEvenly(n);
+        } catch (RuntimeException e) {
+            // The partitioner does not support splitting
+            return Collections.singletonList(range);
+        }
+    }
+
+    /**
+     * Estimate the rows of each range. The estimate of a range in
+     * <code>system.size_estimates</code> is used if present. Otherwise it is
+     * extrapolated by the size of the range.
+     *
+     * @return The estimated rows of each range, or null if no estimate is available.
+     */
+    private double[] estimateRows(List<TokenRange> ranges, double[] fractions) {
+        Map<TokenRange, Long> estimates = new HashMap<>();
+        try {
+            ResultSet rs = session.execute(
+                    "SELECT range_start, range_end, partitions_count " +
+                    "FROM system.size_estimates " +
+                    "WHERE keyspace_name = ? AND table_name = ?",
+                    keyspace, table);
+            for (Row row : rs) {
+                TokenRange range = metadata.newTokenRange(
+                        metadata.newToken(row.getString("range_start")),
+                        metadata.newToken(row.getString("range_end")));
+                estimates.put(range, row.getLong("partitions_count"));
+            }
+        } catch (RuntimeException e) {
+            // size_estimates is not available
+            return null;
+        }
+
+        double estimatedRows = 0;
+        double estimatedFraction = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            Long estimate = estimates.get(ranges.get(i));
+            if (estimate != null) {
+                estimatedRows += estimate;
+                estimatedFraction += fractions[i];
+            }
+        }
+
+        if (estimatedFraction <= 0) {
+            return null;
+        }
+
+        // The rows per unit fraction of the ring
+        double density = estimatedRows / estimatedFraction;
+        double[] rows = new double[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            Long estimate = estimates.get(ranges.get(i));
+            rows[i] = estimate != null ? estimate : density * fractions[i];
+        }
+        return rows;
+    }
+
+    /**
+     * The fractions of the ring covered by the ranges, or null if the
+     * partitioner is not supported.
+     */
+    private static double[] fractions(List<TokenRange> ranges) {
+        double[] fractions = new double[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            fractions[i] = fraction(ranges.get(i));
+            if (fractions[i] < 0) {
+                return null;
+            }
+        }
+        return fractions;
+    }
+
+    /**
+     * The fraction of the ring covered by the range, or -1 if the partitioner
+     * is not supported.
+     */
+    static double fraction(TokenRange range) {
+        Object start = range.getStart().getValue();
+        Object end = range.getEnd().getValue();
+
+        BigInteger ring;
+        BigInteger startValue;
+        BigInteger endValue;
+        if (start instanceof Long) {
+            ring = MURMUR3_RING;
+            startValue = BigInteger.valueOf((Long) start);
+            endValue = BigInteger.valueOf((Long) end);
+        } else if (start instanceof BigInteger) {
+            ring = RANDOM_RING;
+            startValue = (BigInteger) start;
+            endValue = (BigInteger) end;
+        } else {
+            return -1;
+        }
+
+        BigInteger size = endValue.subtract(startValue);
+        if (size.signum() <= 0) {
+            // A wrapped range, or the full ring if start == end
+            size = size.add(ring);
+        }
+
+        return new BigDecimal(size)
+                .divide(new BigDecimal(ring), MathContext.DECIMAL64)
+                .doubleValue();
+    }
+}
@@ -0,0 +1,33 @@
+package com.datastax.driver.core;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Build the metadata of a Murmur3 ring without connecting to a cluster for the
+ * tests. The token map is package-private in the driver.
+ */
+public class TestMetadata {
+
+    private TestMetadata() {}
+
+    /**
+     * The metadata of a single host which owns the tokens, e.g. the vnodes.
+     */
+    public static Metadata murmur3(long... tokens) {
+        Cluster cluster = Cluster.builder().addContactPoint("127.0.0.1").build();
+        Token.Factory factory = Token.getFactory("Murmur3Partitioner");
+        Set<Token> ring = new TreeSet<>();
+        for (long token : tokens) {
+            ring.add(factory.fromString(Long.toString(token)));
+        }
+
+        Metadata metadata = new Metadata(cluster.manager);
+        Host host = new Host(new InetSocketAddress("127.0.0.1", 9042),
+                new ConvictionPolicy.DefaultConvictionPolicy.Factory(), cluster.manager);
+        metadata.rebuildTokenMap(factory, Collections.singletonMap(host, ring));
+        return metadata;
+    }
+}
@@ -0,0 +1,36 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build the rows of the driver without a cluster for the tests. The rows are
+ * package-private in the driver.
+ */
+public class TestRows {
+
+    private TestRows() {}
+
+    /**
+     * The columns of the names and the types, e.g. columns("id", DataType.cint()).
+     */
+    public static ColumnDefinitions columns(Object... namesAndTypes) {
+        ColumnDefinitions.Definition[] definitions =
+                new ColumnDefinitions.Definition[namesAndTypes.length / 2];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = new ColumnDefinitions.Definition(
+                    "ks", "t", (String) namesAndTypes[2 * i], (DataType) namesAndTypes[2 * i + 1]);
+        }
+        return new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    public static Row row(ColumnDefinitions columns, Object... values) {
+        List<ByteBuffer> data = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            TypeCodec<Object> codec = CodecRegistry.DEFAULT_INSTANCE.codecFor(columns.getType(i));
+            data.add(codec.serialize(values[i], ProtocolVersion.V4));
+        }
+        return ArrayBackedRow.fromData(columns, null, ProtocolVersion.V4, data);
+    }
+}
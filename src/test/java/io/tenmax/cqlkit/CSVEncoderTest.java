@@ -0,0 +1,74 @@
+package io.tenmax.cqlkit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CSVEncoderTest {
+    private static final List<String> VALUES = Arrays.asList(
+            "", " ", "a", "abc", "1", "-1", "1.5", "a b", " a", "a ", "a\t",
+            "\"", "a\"b", "\"a\"", "a,b", ",", "a\nb", "a\r\nb", "\n", "#a", "a#",
+            "!a", "~a", "_a", "[a]", "{\"a\":1}", "é", "中文", "\uD83D\uDE00", "a\u0000b");
+
+    /**
+     * Every pair of the values, so each value is tested as the first cell and
+     * as the other cells.
+     */
+    @Test
+    public void testSameAsCSVPrinter() throws Exception {
+        for (String first : VALUES) {
+            for (String second : VALUES) {
+                assertEncoded(first, second);
+            }
+        }
+        assertEncoded(null, "a", null);
+        assertEncoded(null, null);
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random random = new Random(0);
+        String chars = "aZ09 ,\"\r\n#\t\u00e9\u4e2d";
+        for (int i = 0; i < 10000; i++) {
+            String[] record = new String[1 + random.nextInt(3)];
+            for (int j = 0; j < record.length; j++) {
+                StringBuilder builder = new StringBuilder();
+                int len = random.nextInt(5);
+                for (int k = 0; k < len; k++) {
+                    builder.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                record[j] = builder.toString();
+            }
+            assertEncoded(record);
+        }
+    }
+
+    private static void assertEncoded(String... record) throws Exception {
+        StringBuilder expected = new StringBuilder();
+        try (CSVPrinter printer = CSVFormat.DEFAULT.print(expected)) {
+            printer.printRecord((Object[]) record);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputWriter writer = new OutputWriter(bytes, new byte[0], "\r\n".getBytes(StandardCharsets.UTF_8))) {
+            OutputBuffer out = writer.newBuffer();
+            out.startRecord();
+            for (int i = 0; i < record.length; i++) {
+                CSVEncoder.writeCell(out, record[i], i == 0);
+            }
+            out.endRecord();
+            out.flush();
+        }
+
+        assertEquals(Arrays.toString(record), expected.toString(),
+                new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
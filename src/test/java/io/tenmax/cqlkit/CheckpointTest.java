@@ -0,0 +1,88 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.TestMetadata;
+import com.datastax.driver.core.TokenRange;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Metadata metadata = TestMetadata.murmur3(-100, 0, 100);
+
+    @Test
+    public void testResume() throws Exception {
+        File file = new File(folder.getRoot(), "checkpoint");
+        TokenRange first = range(-100, 0);
+        TokenRange second = range(0, 100);
+
+        try (Checkpoint checkpoint = new Checkpoint(file, metadata)) {
+            assertTrue(checkpoint.getPlannedRanges().isEmpty());
+            checkpoint.plan(Arrays.asList(first, second));
+            checkpoint.complete(first);
+        }
+
+        // A line partially written by a killed export is ignored
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("done 0 1".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (Checkpoint checkpoint = new Checkpoint(file, metadata)) {
+            assertEquals(Arrays.asList(first, second), checkpoint.getPlannedRanges());
+            assertEquals(1, checkpoint.getCompletedCount());
+            assertTrue(checkpoint.isCompleted(first));
+            assertFalse(checkpoint.isCompleted(second));
+            assertEquals(Collections.emptyList(), checkpoint.remaining(first));
+            assertEquals(Collections.singletonList(second), checkpoint.remaining(second));
+            checkpoint.complete(second);
+        }
+
+        try (Checkpoint checkpoint = new Checkpoint(file, metadata)) {
+            assertEquals(2, checkpoint.getCompletedCount());
+            assertEquals(2, checkpoint.getPlannedRanges().size());
+        }
+    }
+
+    /**
+     * The gaps of a subrange of which some parts were completed after a split.
+     */
+    @Test
+    public void testRemaining() throws Exception {
+        try (Checkpoint checkpoint = new Checkpoint(new File(folder.getRoot(), "checkpoint"), metadata)) {
+            checkpoint.complete(range(-80, -50));
+            checkpoint.complete(range(-20, 0));
+            checkpoint.complete(range(10, 20));
+
+            assertEquals(Arrays.asList(range(-100, -80), range(-50, -20)),
+                    checkpoint.remaining(range(-100, 0)));
+            assertEquals(Arrays.asList(range(0, 10), range(20, 100)),
+                    checkpoint.remaining(range(0, 100)));
+
+            // The last subrange of the ring ends at the minimum token
+            TokenRange last = metadata.newTokenRange(
+                    metadata.newToken("100"), metadata.newToken(Long.toString(Long.MIN_VALUE)));
+            assertEquals(Collections.singletonList(last), checkpoint.remaining(last));
+            checkpoint.complete(metadata.newTokenRange(
+                    metadata.newToken("200"), metadata.newToken(Long.toString(Long.MIN_VALUE))));
+            assertEquals(Collections.singletonList(range(100, 200)), checkpoint.remaining(last));
+        }
+    }
+
+    private TokenRange range(long start, long end) {
+        return metadata.newTokenRange(
+                metadata.newToken(Long.toString(start)),
+                metadata.newToken(Long.toString(end)));
+    }
+}
@@ -0,0 +1,121 @@
+package io.tenmax.cqlkit;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class DateFormatterTest {
+    private static final String[] PATTERNS = {
+            "yyyy-MM-dd' 'HH:mm:ss.SSSZ",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+            "EEE, d MMM yyyy HH:mm:ss Z",
+            "EEEE MMMMM dd G yyyy, hh 'o''clock' a",
+            "yyyyMMddHHmmssSSS",
+            "yyyy-MM-dd",
+            "y D k K",
+            "[yyyy] {MM} #dd",
+            // Translated differently, so formatted by SimpleDateFormat
+            "yy-MM-dd HH:mm",
+            "YYYY-'W'ww-u",
+            "yyyy-MM-dd HH:mm:ss.S",
+            "yyyy-MM-dd HH:mm:ss.SSSSSS",
+            "dd/MM/yyyy HH:mm:ss.SSS z",
+            "yyyy-MM-dd HH:mmX",
+            "F W dd",
+    };
+
+    private static final String[] ZONES = {"UTC", "Asia/Kolkata", "America/New_York"};
+
+    @Test
+    public void testFormatLikeSimpleDateFormat() {
+        Random random = new Random(42);
+        long[] times = new long[1000];
+        times[0] = 0;
+        times[1] = -1;
+        times[2] = 1500000000123L;
+        // The seconds shared by the cache
+        times[3] = 1500000000999L;
+        times[4] = 1500000000001L;
+        for (int i = 5; i < times.length; i++) {
+            // Between 1900 and 2100
+            times[i] = (long) ((random.nextDouble() * 200 - 70) * 365.25 * 86400000L);
+        }
+
+        for (String pattern : PATTERNS) {
+            for (String zone : ZONES) {
+                SimpleDateFormat expected = new SimpleDateFormat(pattern);
+                expected.setTimeZone(TimeZone.getTimeZone(zone));
+                DateFormatter formatter = new DateFormatter(pattern, ZoneId.of(zone));
+                for (long time : times) {
+                    Date date = new Date(time);
+                    assertEquals(pattern + " in " + zone + " of " + time,
+                            expected.format(date), formatter.format(date));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParseLikeSimpleDateFormat() throws Exception {
+        String[][] cases = {
+                {"yyyy-MM-dd' 'HH:mm:ss.SSSZ", "2017-07-14 02:40:00.123+0800"},
+                {"yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "2017-07-14T02:40:00.123-05:30"},
+                {"yyyy-MM-dd HH:mm", "2017-07-14 02:40"},
+                {"yyyy-MM-dd", "2017-07-14"},
+                {"yy-MM-dd HH:mm", "17-07-14 02:40"},
+                {"dd/MM/yyyy HH:mm:ss.SSS z", "14/07/2017 02:40:00.123 PST"},
+        };
+        for (String[] c : cases) {
+            for (String zone : ZONES) {
+                SimpleDateFormat expected = new SimpleDateFormat(c[0]);
+                expected.setTimeZone(TimeZone.getTimeZone(zone));
+                DateFormatter formatter = new DateFormatter(c[0], ZoneId.of(zone));
+                assertEquals(c[0] + " in " + zone, expected.parse(c[1]), formatter.parse(c[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testParseErrors() {
+        String[][] cases = {
+                {"yyyy-MM-dd' 'HH:mm:ss.SSSZ", "2017-07-14"},
+                {"yyyy-MM-dd", "2017-07-14 02:40"},
+                {"yy-MM-dd", "17-07-14 trailing"},
+                {"yy-MM-dd", "17/07/14"},
+                {"HH:mm", "02:40"},
+        };
+        for (String[] c : cases) {
+            try {
+                new DateFormatter(c[0], ZoneId.of("UTC")).parse(c[1]);
+                fail("Parsed " + c[1] + " in " + c[0]);
+            } catch (DateTimeParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTranslation() {
+        assertEquals("yyyy-MM-dd' 'HH:mm:ss.SSSZ",
+                DateFormatter.toJavaTimePattern("yyyy-MM-dd' 'HH:mm:ss.SSSZ"));
+        assertEquals("EEEE MMMM d a Z G", DateFormatter.toJavaTimePattern("EEEEE MMMMM d aa ZZZ GG"));
+        assertEquals("'['yyyy']'", DateFormatter.toJavaTimePattern("[yyyy]"));
+        assertNull(DateFormatter.toJavaTimePattern("u"));
+        assertNull(DateFormatter.toJavaTimePattern("YYYY"));
+        assertNull(DateFormatter.toJavaTimePattern("yy"));
+        assertNull(DateFormatter.toJavaTimePattern("S"));
+        assertNull(DateFormatter.toJavaTimePattern("'unterminated"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        new DateFormatter("yyyy-MM-dd q", ZoneId.of("UTC"));
+    }
+}
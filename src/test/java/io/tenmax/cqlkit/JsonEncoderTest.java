@@ -0,0 +1,93 @@
+package io.tenmax.cqlkit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class JsonEncoderTest {
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void testWriteString() {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x100; c++) {
+            all.append(c);
+        }
+        List<String> values = Arrays.asList(
+                "", "abc", "\"quoted\"", "back\\slash", "<script>&'='</script>",
+                "\u2028\u2029", "é中文\uD83D\uDE00", all.toString());
+        for (String value : values) {
+            assertEquals(GSON.toJson(value), encode(out -> JsonEncoder.writeString(out, value)));
+        }
+    }
+
+    /**
+     * The parse mode is the same as the JsonParser and the Gson encoding.
+     */
+    @Test
+    public void testWriteJsonParse() {
+        List<String> values = Arrays.asList(
+                "{}", "[]", "1", "-1.50e10", "true", "\"a<b\"",
+                " { \"a\" : [1, 2.0, {\"b\": null}], \"c\": null, \"d\": \"\\u2028\" } ",
+                "[null, false, \"x\"]", "{a: 'lenient'}");
+        for (String value : values) {
+            JsonElement element = JsonParser.parseString(value);
+            assertEquals(value, GSON.toJson(element),
+                    encode(out -> assertTrue(JsonEncoder.writeJson(out, value, JsonEncoder.Mode.PARSE))));
+        }
+    }
+
+    @Test
+    public void testWriteJsonEmpty() {
+        for (JsonEncoder.Mode mode : JsonEncoder.Mode.values()) {
+            assertEquals("", encode(out -> assertFalse(JsonEncoder.writeJson(out, "", mode))));
+            assertEquals("", encode(out -> assertFalse(JsonEncoder.writeJson(out, "  ", mode))));
+        }
+        assertEquals("", encode(out -> assertFalse(JsonEncoder.writeJson(out, "null", JsonEncoder.Mode.PARSE))));
+        assertEquals("", encode(out -> assertFalse(JsonEncoder.writeJson(out, "null", JsonEncoder.Mode.VALIDATE))));
+    }
+
+    @Test
+    public void testWriteJsonValidate() {
+        String json = " {\"a\": [1, 2]} ";
+        assertEquals(json, encode(out -> JsonEncoder.writeJson(out, json, JsonEncoder.Mode.VALIDATE)));
+        assertEquals("{x", encode(out -> JsonEncoder.writeJson(out, "{x", JsonEncoder.Mode.RAW)));
+
+        for (String invalid : Arrays.asList("{x", "[1,", "{} {}", "{'a': 1}")) {
+            try {
+                encode(out -> JsonEncoder.writeJson(out, invalid, JsonEncoder.Mode.VALIDATE));
+                fail(invalid);
+            } catch (JsonSyntaxException e) {
+                // expected
+            }
+        }
+        for (String invalid : Arrays.asList("{x", "[1,", "{} {}")) {
+            try {
+                encode(out -> JsonEncoder.writeJson(out, invalid, JsonEncoder.Mode.PARSE));
+                fail(invalid);
+            } catch (JsonSyntaxException e) {
+                // expected
+            }
+        }
+    }
+
+    private static String encode(Consumer<OutputBuffer> encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputWriter writer = new OutputWriter(bytes, new byte[0], new byte[0])) {
+            OutputBuffer out = writer.newBuffer();
+            encoder.accept(out);
+            out.flush();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.TestMetadata;
+import com.datastax.driver.core.TokenRange;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutputDirectoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Metadata metadata = TestMetadata.murmur3(-100, 0, 100);
+
+    private OutputDirectory open(File dir, long maxRecords) throws IOException {
+        return new OutputDirectory(dir, "csv", new byte[0], new byte[] {'\n'}, false, 0, maxRecords,
+                writer -> writer.writeRaw(bytes("head\n")),
+                writer -> writer.writeRaw(bytes("tail\n")));
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        File dir = folder.newFolder();
+        TokenRange first = range(-100, 0);
+        TokenRange second = range(0, 100);
+
+        try (OutputDirectory output = open(dir, 2)) {
+            OutputDirectory.Part part = output.newPart();
+            write(part, "a", "b");
+            part.addRange(first);
+            assertTrue(part.isFull());
+            part.close();
+
+            part = output.newPart();
+            write(part, "c");
+            part.addRange(second);
+            assertFalse(part.isFull());
+
+            // An empty part is deleted
+            output.newPart();
+        }
+
+        assertEquals("head\na\nb\ntail\n", read(new File(dir, "part-00000.csv")));
+        assertEquals("head\nc\ntail\n", read(new File(dir, "part-00001.csv")));
+        assertFalse(new File(dir, "part-00002.csv").exists());
+
+        JsonObject manifest = manifest(dir);
+        assertEquals(3, manifest.get("rows").getAsLong());
+        assertEquals(2, manifest.getAsJsonArray("parts").size());
+        JsonObject entry = manifest.getAsJsonArray("parts").get(0).getAsJsonObject();
+        assertEquals("part-00000.csv", entry.get("file").getAsString());
+        assertEquals(2, entry.get("rows").getAsLong());
+        assertEquals(14, entry.get("bytes").getAsLong());
+        assertEquals("[[\"-100\",\"0\"]]", entry.getAsJsonArray("ranges").toString());
+
+        try (OutputDirectory output = open(dir, 0)) {
+            assertEquals(Arrays.asList(first, second), output.getRanges(metadata));
+        }
+    }
+
+    /**
+     * A part left open by a killed export is truncated to its committed
+     * ranges, and a part which was never listed is moved away.
+     */
+    @Test
+    public void testResume() throws Exception {
+        File dir = folder.newFolder();
+        TokenRange committed = range(-100, 0);
+
+        OutputDirectory killed = open(dir, 0);
+        OutputDirectory.Part part = killed.newPart();
+        write(part, "a", "b");
+        part.addRange(committed);
+        CountDownLatch latch = new CountDownLatch(1);
+        part.afterWritten(latch::countDown);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        JsonObject entry = manifest(dir).getAsJsonArray("parts").get(0).getAsJsonObject();
+        assertTrue(entry.get("open").getAsBoolean());
+        assertEquals(2, entry.get("rows").getAsLong());
+
+        // The rows of a range in flight when the export is killed
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "part-00000.csv"), true)) {
+            out.write(bytes("c\n"));
+        }
+        Files.write(new File(dir, "part-00001.csv").toPath(), bytes("head\nd\n"));
+
+        try (OutputDirectory output = open(dir, 0)) {
+            assertEquals(Collections.singletonList(committed), output.getRanges(metadata));
+
+            entry = manifest(dir).getAsJsonArray("parts").get(0).getAsJsonObject();
+            assertFalse(entry.has("open"));
+            assertEquals("head\na\nb\ntail\n", read(new File(dir, "part-00000.csv")));
+            assertEquals(14, entry.get("bytes").getAsLong());
+            assertFalse(new File(dir, "part-00001.csv").exists());
+            assertEquals("head\nd\n", read(new File(dir, "part-00001.csv.orphan")));
+
+            // The numbering continues after the orphan
+            part = output.newPart();
+            write(part, "e");
+            part.addRange(range(0, 100));
+        }
+
+        JsonObject manifest = manifest(dir);
+        assertEquals(3, manifest.get("rows").getAsLong());
+        assertEquals("part-00002.csv",
+                manifest.getAsJsonArray("parts").get(1).getAsJsonObject().get("file").getAsString());
+    }
+
+    /**
+     * An open part with no committed range is deleted on resume.
+     */
+    @Test
+    public void testResumeEmptyPart() throws Exception {
+        File dir = folder.newFolder();
+
+        OutputDirectory killed = open(dir, 0);
+        OutputDirectory.Part part = killed.newPart();
+        CountDownLatch latch = new CountDownLatch(1);
+        part.afterWritten(latch::countDown);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        write(part, "a");
+
+        try (OutputDirectory output = open(dir, 0)) {
+            assertTrue(output.getRanges(metadata).isEmpty());
+        }
+        assertFalse(new File(dir, "part-00000.csv").exists());
+        assertEquals(0, manifest(dir).getAsJsonArray("parts").size());
+    }
+
+    private TokenRange range(long start, long end) {
+        return metadata.newTokenRange(
+                metadata.newToken(Long.toString(start)),
+                metadata.newToken(Long.toString(end)));
+    }
+
+    private static void write(OutputDirectory.Part part, String... records) {
+        OutputBuffer buffer = part.getBuffer();
+        for (String record : records) {
+            buffer.append(record);
+        }
+        buffer.flush();
+    }
+
+    private static JsonObject manifest(File dir) throws IOException {
+        return JsonParser.parseString(read(new File(dir, OutputDirectory.MANIFEST))).getAsJsonObject();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TestRows;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class RowFilterTest {
+    private static final UUID ID = UUID.fromString("123e4567-e89b-12d3-a456-426655440000");
+
+    private static final ColumnDefinitions COLUMNS = TestRows.columns(
+            "id", DataType.uuid(), "name", DataType.text(),
+            "count", DataType.bigint(), "small", DataType.smallint(),
+            "ratio", DataType.cfloat(), "score", DataType.cdouble(),
+            "enabled", DataType.cboolean(), "created", DataType.timestamp(),
+            "ip", DataType.inet(), "price", DataType.decimal(),
+            "Quoted", DataType.cint());
+
+    private static Row row() throws Exception {
+        return TestRows.row(COLUMNS,
+                ID, "it's a test",
+                10L, (short) -3,
+                1.5f, 0.25,
+                true, new Date(1500000000123L),
+                InetAddress.getByName("10.0.0.1"), new BigDecimal("1.50"),
+                null);
+    }
+
+    private static boolean test(String filter) throws Exception {
+        Predicate<Row> predicate = RowFilter.parse(filter).compile(COLUMNS);
+        return predicate.test(row());
+    }
+
+    @Test
+    public void testComparisons() throws Exception {
+        assertTrue(test("count = 10"));
+        assertTrue(test("count >= 10 and count < 11"));
+        assertFalse(test("count <> 10"));
+        assertTrue(test("small < 0"));
+        assertTrue(test("ratio > 1.25"));
+        assertTrue(test("score = 0.25"));
+        assertTrue(test("score != 2.5e-1 or enabled = true"));
+        assertFalse(test("enabled = false"));
+        assertTrue(test("name = 'it''s a test'"));
+        assertTrue(test("name > 'a'"));
+        assertTrue(test("id = '" + ID + "'"));
+        assertTrue(test("created = '2017-07-14 02:40:00.123+0000'"));
+        assertTrue(test("created > 1500000000000"));
+        assertTrue(test("ip = '10.0.0.1'"));
+    }
+
+    @Test
+    public void testIn() throws Exception {
+        assertTrue(test("count in (1, 10)"));
+        assertFalse(test("count in (1, 2)"));
+        assertTrue(test("small in (-3)"));
+        assertTrue(test("ratio in (1.5, 2)"));
+        assertTrue(test("name in ('a', 'it''s a test')"));
+        assertTrue(test("ip in ('10.0.0.2', '10.0.0.1')"));
+        // The same value of another scale
+        assertTrue(test("price in (1.5)"));
+        assertTrue(test("price = 1.500"));
+        assertFalse(test("\"Quoted\" in (0)"));
+    }
+
+    @Test
+    public void testLikeAndNull() throws Exception {
+        assertTrue(test("name like 'it%'"));
+        assertTrue(test("name like '%_ test'"));
+        assertFalse(test("name like 'test%'"));
+        assertTrue(test("\"Quoted\" is null"));
+        assertFalse(test("\"Quoted\" is not null"));
+        assertTrue(test("name is not null"));
+
+        // A comparison with a null column is false
+        assertFalse(test("\"Quoted\" = 0"));
+        assertFalse(test("\"Quoted\" <> 0"));
+        assertTrue(test("not \"Quoted\" = 0"));
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        assertTrue(test("count = 1 and small = 1 or enabled = true"));
+        assertFalse(test("count = 1 and (small = 1 or enabled = true)"));
+        assertTrue(test("not count = 1 and not (small = 1)"));
+        assertTrue(test("NOT count = 1 AND name LIKE 'it%'"));
+    }
+
+    @Test
+    public void testErrors() {
+        assertError("count =", "Unexpected end of filter at 7 of filter: count =");
+        assertError("count = ratio", "Expected a literal but ratio at 8 of filter: count = ratio");
+        assertError("count ~ 1", "Unexpected ~ at 6 of filter: count ~ 1");
+        assertError("name = 'a", "Unterminated quote at 7 of filter: name = 'a");
+        assertError("count = 1)", "Unexpected ) at 9 of filter: count = 1)");
+        assertError("(count = 1", "Expected ) at 10 of filter: (count = 1");
+        assertError("name like 1", "Expected a string pattern but 1 at 11 of filter: name like 1");
+        assertError("count = 1 x", "Unexpected x at 10 of filter: count = 1 x");
+
+        assertCompileError("unknown = 1", "Unknown column in filter: unknown");
+        assertCompileError("count like 'a%'", "LIKE on the non-text column: count");
+        assertCompileError("count = 'a'", "Invalid bigint literal of column count: a");
+    }
+
+    private static void assertError(String filter, String message) {
+        try {
+            RowFilter.parse(filter);
+            fail("Parsed " + filter);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertCompileError(String filter, String message) {
+        RowFilter rowFilter = RowFilter.parse(filter);
+        try {
+            rowFilter.compile(COLUMNS);
+            fail("Compiled " + filter);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
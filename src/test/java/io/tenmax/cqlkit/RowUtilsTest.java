@@ -0,0 +1,125 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TestRows;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class RowUtilsTest {
+
+    /**
+     * The values of each type written by cql2json and read back by json2cql.
+     */
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        InetAddress inet = InetAddress.getByName("1.2.3.4");
+        InetAddress inet6 = InetAddress.getByName("::1");
+        Date timestamp = new Date(1500000000123L);
+        ByteBuffer blob = ByteBuffer.wrap(new byte[] {1, 2, (byte) 0xff});
+        UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426655440000");
+        Map<InetAddress, Integer> inets = new LinkedHashMap<>();
+        inets.put(inet, 1);
+        inets.put(inet6, 2);
+        Map<Date, String> timestamps = Collections.singletonMap(timestamp, "a");
+        Map<ByteBuffer, Double> blobs = Collections.singletonMap(blob, 1.5);
+        Map<LocalDate, Boolean> dates = Collections.singletonMap(LocalDate.fromYearMonthDay(2017, 7, 14), true);
+        Map<Integer, List<InetAddress>> ints = Collections.singletonMap(-1, Arrays.asList(inet, inet6));
+
+        Object[] namesAndTypes = {
+                "ascii", DataType.ascii(), "text", DataType.text(),
+                "bigint", DataType.bigint(), "int", DataType.cint(),
+                "smallint", DataType.smallint(), "tinyint", DataType.tinyint(),
+                "varint", DataType.varint(), "decimal", DataType.decimal(),
+                "double", DataType.cdouble(), "float", DataType.cfloat(),
+                "boolean", DataType.cboolean(), "blob", DataType.blob(),
+                "uuid", DataType.uuid(), "timeuuid", DataType.timeuuid(),
+                "inet", DataType.inet(), "inet6", DataType.inet(),
+                "timestamp", DataType.timestamp(), "date", DataType.date(),
+                "time", DataType.time(),
+                "list_inet", DataType.list(DataType.inet()),
+                "set_timestamp", DataType.set(DataType.timestamp()),
+                "map_inet", DataType.map(DataType.inet(), DataType.cint()),
+                "map_timestamp", DataType.map(DataType.timestamp(), DataType.text()),
+                "map_blob", DataType.map(DataType.blob(), DataType.cdouble()),
+                "map_date", DataType.map(DataType.date(), DataType.cboolean()),
+                "map_int", DataType.map(DataType.cint(), DataType.list(DataType.inet())),
+        };
+        Object[] values = {
+                "ascii", "é\"\n<'>",
+                Long.MIN_VALUE, Integer.MAX_VALUE,
+                (short) -2, (byte) 3,
+                new BigInteger("123456789012345678901234567890"), new BigDecimal("-1.50"),
+                0.1, 2.5f,
+                true, blob,
+                uuid, UUID.fromString("fe2b4360-28c6-11e2-81c1-0800200c9a66"),
+                inet, inet6,
+                timestamp, LocalDate.fromYearMonthDay(1969, 12, 31),
+                45296789000123L,
+                Arrays.asList(inet, inet6),
+                new LinkedHashSet<>(Arrays.asList(timestamp, new Date(0))),
+                inets, timestamps, blobs, dates, ints,
+        };
+
+        ColumnDefinitions columns = TestRows.columns(namesAndTypes);
+        Row row = TestRows.row(columns, values);
+        JsonObject json = JsonParser.parseString(toJson(columns, row)).getAsJsonObject();
+
+        for (int i = 0; i < values.length; i++) {
+            DataType type = columns.getType(i);
+            Object value = RowUtils.toJsonValueParser(type).parse(json.get(columns.getName(i)));
+            assertEquals(columns.getName(i), values[i], value);
+        }
+    }
+
+    @Test
+    public void testStringRoundTrip() throws Exception {
+        ColumnDefinitions columns = TestRows.columns(
+                "inet", DataType.inet(), "timestamp", DataType.timestamp(),
+                "blob", DataType.blob(), "list", DataType.list(DataType.text()));
+        Object[] values = {
+                InetAddress.getByName("1.2.3.4"), new Date(1500000000123L),
+                ByteBuffer.wrap(new byte[] {0}), Arrays.asList("a", "b'c")};
+        Row row = TestRows.row(columns, values);
+
+        RowUtils.StringConverter[] converters = RowUtils.toStringConverters(columns);
+        for (int i = 0; i < values.length; i++) {
+            String text = converters[i].convert(row, i);
+            assertEquals(values[i], RowUtils.toStringParser(columns.getType(i)).parse(text));
+        }
+    }
+
+    private static String toJson(ColumnDefinitions columns, Row row) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputWriter writer = new OutputWriter(bytes, new byte[0], new byte[0])) {
+            OutputBuffer out = writer.newBuffer();
+            RowUtils.JsonConverter[] converters =
+                    RowUtils.toJsonConverters(columns, Collections.emptySet(), JsonEncoder.Mode.PARSE);
+            out.startRecord();
+            out.write('{');
+            boolean first = true;
+            for (int i = 0; i < converters.length; i++) {
+                if (converters[i].write(out, row, i, first)) {
+                    first = false;
+                }
+            }
+            out.write('}');
+            out.endRecord();
+            out.flush();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
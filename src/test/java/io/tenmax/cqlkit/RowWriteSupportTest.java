@@ -0,0 +1,149 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.TestRows;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RowWriteSupportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write the rows of each type and read them back with parquet-hadoop.
+     */
+    @Test
+    public void testReadBack() throws Exception {
+        ColumnDefinitions columns = TestRows.columns(
+                "text", DataType.text(), "inet", DataType.inet(),
+                "uuid", DataType.uuid(), "blob", DataType.blob(),
+                "boolean", DataType.cboolean(), "tinyint", DataType.tinyint(),
+                "smallint", DataType.smallint(), "int", DataType.cint(),
+                "bigint", DataType.bigint(), "time", DataType.time(),
+                "float", DataType.cfloat(), "double", DataType.cdouble(),
+                "timestamp", DataType.timestamp(), "date", DataType.date(),
+                "varint", DataType.varint(), "decimal", DataType.decimal(),
+                "list", DataType.list(DataType.cint()),
+                "set", DataType.set(DataType.text()),
+                "map", DataType.map(DataType.text(), DataType.timestamp()));
+
+        UUID uuid = UUID.randomUUID();
+        Map<String, Date> map = new LinkedHashMap<>();
+        map.put("a", new Date(1500000000123L));
+        map.put("b", new Date(-1));
+        List<Row> rows = Arrays.asList(
+                TestRows.row(columns,
+                        "é", InetAddress.getByName("::1"),
+                        uuid, ByteBuffer.wrap(new byte[] {0, (byte) 0xff}),
+                        true, (byte) -128,
+                        (short) 32767, 42,
+                        Long.MAX_VALUE, 3723000000004L,
+                        1.5f, -0.25,
+                        new Date(1500000000123L), LocalDate.fromYearMonthDay(1969, 12, 31),
+                        new BigInteger("123456789012345678901234567890"), new BigDecimal("-1.50"),
+                        Arrays.asList(3, 1, 2),
+                        new LinkedHashSet<>(Arrays.asList("x", "y")),
+                        map),
+                TestRows.row(columns,
+                        null, null, null, null, null, null, null, null, null, null,
+                        null, null, null, null, null, null,
+                        Collections.emptyList(), null, Collections.emptyMap()));
+
+        File file = folder.newFile("part.parquet");
+        try (ParquetWriter<Row> writer = new CQL2PARQUET.Builder(
+                new StreamOutputFile(new FileOutputStream(file)), new RowWriteSupport(columns))
+                .build()) {
+            for (Row row : rows) {
+                writer.write(row);
+            }
+        }
+
+        Configuration conf = new Configuration();
+        Path path = new Path(file.toURI());
+        MessageType schema;
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(path, conf))) {
+            schema = reader.getFooter().getFileMetaData().getSchema();
+        }
+        assertEquals(OriginalType.UTF8, schema.getType("inet").getOriginalType());
+        assertEquals(OriginalType.INT_8, schema.getType("tinyint").getOriginalType());
+        assertEquals(OriginalType.INT_16, schema.getType("smallint").getOriginalType());
+        assertEquals(OriginalType.DATE, schema.getType("date").getOriginalType());
+        assertEquals(OriginalType.TIMESTAMP_MILLIS, schema.getType("timestamp").getOriginalType());
+        assertEquals(PrimitiveTypeName.INT64,
+                schema.getType("timestamp").asPrimitiveType().getPrimitiveTypeName());
+        assertEquals(OriginalType.LIST, schema.getType("list").getOriginalType());
+        assertEquals(OriginalType.LIST, schema.getType("set").getOriginalType());
+        assertEquals(OriginalType.MAP, schema.getType("map").getOriginalType());
+        assertEquals(OriginalType.TIMESTAMP_MILLIS, schema.getType("map", "key_value", "value").getOriginalType());
+
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), path)
+                .withConf(conf)
+                .build()) {
+            Group group = reader.read();
+            assertEquals("é", group.getString("text", 0));
+            assertEquals("0:0:0:0:0:0:0:1", group.getString("inet", 0));
+            assertEquals(uuid.toString(), group.getString("uuid", 0));
+            assertArrayEquals(new byte[] {0, (byte) 0xff}, group.getBinary("blob", 0).getBytes());
+            assertTrue(group.getBoolean("boolean", 0));
+            assertEquals(-128, group.getInteger("tinyint", 0));
+            assertEquals(32767, group.getInteger("smallint", 0));
+            assertEquals(42, group.getInteger("int", 0));
+            assertEquals(Long.MAX_VALUE, group.getLong("bigint", 0));
+            assertEquals(3723000000004L, group.getLong("time", 0));
+            assertEquals(1.5f, group.getFloat("float", 0), 0);
+            assertEquals(-0.25, group.getDouble("double", 0), 0);
+            assertEquals(1500000000123L, group.getLong("timestamp", 0));
+            assertEquals(-1, group.getInteger("date", 0));
+            assertEquals("123456789012345678901234567890", group.getString("varint", 0));
+            assertEquals("-1.50", group.getString("decimal", 0));
+
+            Group list = group.getGroup("list", 0);
+            assertEquals(3, list.getFieldRepetitionCount("list"));
+            assertEquals(3, list.getGroup("list", 0).getInteger("element", 0));
+            assertEquals(2, list.getGroup("list", 2).getInteger("element", 0));
+            Group set = group.getGroup("set", 0);
+            assertEquals("y", set.getGroup("list", 1).getString("element", 0));
+            Group keyValues = group.getGroup("map", 0);
+            assertEquals(2, keyValues.getFieldRepetitionCount("key_value"));
+            assertEquals("a", keyValues.getGroup("key_value", 0).getString("key", 0));
+            assertEquals(1500000000123L, keyValues.getGroup("key_value", 0).getLong("value", 0));
+            assertEquals(-1L, keyValues.getGroup("key_value", 1).getLong("value", 0));
+
+            // The nulls are absent, and the empty collections are empty groups
+            group = reader.read();
+            for (String name : new String[] {"text", "inet", "blob", "tinyint", "timestamp", "date", "set"}) {
+                assertEquals(name, 0, group.getFieldRepetitionCount(name));
+            }
+            assertEquals(0, group.getGroup("list", 0).getFieldRepetitionCount("list"));
+            assertEquals(0, group.getGroup("map", 0).getFieldRepetitionCount("key_value"));
+
+            assertNull(reader.read());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.tenmax.cqlkit;
+
+import com.datastax.driver.core.*;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TokenRangeSplitterTest {
+    private static final long QUARTER = 1L << 62;
+
+    // The ranges cover 1/4, 1/4 and 1/2 of the ring
+    private final Metadata metadata = TestMetadata.murmur3(-QUARTER, 0, QUARTER);
+
+    @Test
+    public void testVnodes() {
+        List<TokenRange> subranges = new TokenRangeSplitter(null, metadata, "ks", "t").split(0, 0);
+        assertEquals(Arrays.asList(
+                range(-QUARTER, 0),
+                range(0, QUARTER),
+                range(QUARTER, Long.MIN_VALUE),
+                range(Long.MIN_VALUE, -QUARTER)), subranges);
+    }
+
+    /**
+     * The splits are distributed by the size of the ranges if size_estimates is
+     * not available.
+     */
+    @Test
+    public void testSplitsByFraction() {
+        List<TokenRange> subranges = new TokenRangeSplitter(null, metadata, "ks", "t").split(8, 0);
+        assertCovered(subranges);
+        assertEquals(2, count(subranges, range(-QUARTER, 0)));
+        assertEquals(2, count(subranges, range(0, QUARTER)));
+        // One of the splits is unwrapped at the end of the ring
+        assertEquals(5, count(subranges, range(QUARTER, -QUARTER)));
+    }
+
+    /**
+     * The ranges without an estimate are extrapolated by the density of the
+     * estimated ones.
+     */
+    @Test
+    public void testSplitsByEstimates() {
+        ColumnDefinitions columns = TestRows.columns(
+                "range_start", DataType.text(), "range_end", DataType.text(),
+                "partitions_count", DataType.bigint());
+        Session session = session(Arrays.asList(
+                TestRows.row(columns, Long.toString(-QUARTER), "0", 3000L),
+                TestRows.row(columns, "0", Long.toString(QUARTER), 1000L)));
+        TokenRangeSplitter splitter = new TokenRangeSplitter(session, metadata, "ks", "t");
+
+        // The wrapped range is estimated 4000 rows
+        List<TokenRange> subranges = splitter.split(0, 1000);
+        assertCovered(subranges);
+        assertEquals(3, count(subranges, range(-QUARTER, 0)));
+        assertEquals(1, count(subranges, range(0, QUARTER)));
+        assertEquals(5, count(subranges, range(QUARTER, -QUARTER)));
+
+        subranges = splitter.split(4, 0);
+        assertCovered(subranges);
+        assertEquals(2, count(subranges, range(-QUARTER, 0)));
+        assertEquals(1, count(subranges, range(0, QUARTER)));
+        assertEquals(3, count(subranges, range(QUARTER, -QUARTER)));
+    }
+
+    @Test
+    public void testFraction() {
+        assertEquals(0.25, TokenRangeSplitter.fraction(range(-QUARTER, 0)), 1e-12);
+        assertEquals(0.5, TokenRangeSplitter.fraction(range(QUARTER, -QUARTER)), 1e-12);
+        assertEquals(1, TokenRangeSplitter.fraction(range(0, 0)), 1e-12);
+    }
+
+    /**
+     * The subranges are unwrapped, in the ring order and cover the whole ring.
+     */
+    private static void assertCovered(List<TokenRange> subranges) {
+        double total = 0;
+        for (int i = 0; i < subranges.size(); i++) {
+            TokenRange subrange = subranges.get(i);
+            assertEquals(1, subrange.unwrap().size());
+            if (i > 0) {
+                assertEquals(subranges.get(i - 1).getEnd(), subrange.getStart());
+            }
+            total += TokenRangeSplitter.fraction(subrange);
+        }
+        assertEquals(1, total, 1e-9);
+    }
+
+    /**
+     * The number of the subranges within the range.
+     */
+    private static int count(List<TokenRange> subranges, TokenRange range) {
+        int count = 0;
+        for (TokenRange subrange : subranges) {
+            if (subrange.intersects(range)) {
+                assertEquals(Arrays.asList(subrange), subrange.intersectWith(range));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private TokenRange range(long start, long end) {
+        return metadata.newTokenRange(
+                metadata.newToken(Long.toString(start)),
+                metadata.newToken(Long.toString(end)));
+    }
+
+    /**
+     * A session of which the queries return the rows.
+     */
+    private static Session session(List<Row> rows) {
+        ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("iterator")) {
+                        return new ArrayList<>(rows).iterator();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return (Session) Proxy.newProxyInstance(
+                Session.class.getClassLoader(), new Class<?>[] {Session.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("execute")) {
+                        return resultSet;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}